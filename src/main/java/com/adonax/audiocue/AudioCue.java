@@ -38,9 +38,13 @@ package com.adonax.audiocue;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -94,10 +98,11 @@ import static com.adonax.audiocue.AudioCueInstanceEvent.Type.STOP_INSTANCE;
  * <p>
  * Internally, a {@code javax.sound.sampled.SourceDataLine}
  * is used for output. When you {@code open} the {@code AudioCue},
- * the line is configured with a buffer size of 1024
- * frames (4192 bytes) and a thread priority of {@code
- * HIGHEST}. Alternative values can be specified as parameters
- * to the {@code open} method.
+ * audio is processed in blocks of 1024 frames (4096 bytes),
+ * between 1024 and 8192 frames are kept queued on the line
+ * depending on detected underruns, and the thread priority
+ * is {@code HIGHEST}. Alternative values can be specified as
+ * parameters to the {@code open} method.
  *
  * @author Philip Freihofner
  * @version AudioCue 1.1
@@ -115,16 +120,50 @@ public class AudioCue
 	private final int SPEED_STEPS = 1024 * 4;
 	private final int PAN_STEPS = 1024;
 	private final int DEFAULT_BUFFER_FRAMES = 1024 ;
-
-	private final LinkedBlockingDeque<AudioCueCursor> availables;
+	private final int DEFAULT_MAX_BUFFER_FRAMES = 1024 * 8;
+	// buffers without underrun before the queued audio shrinks
+	private final int SHRINK_AFTER_BUFFERS = 430; // ~10 seconds
+	private final int COMMAND_QUEUE_SIZE = 256;
+	private final int EVENT_QUEUE_SIZE = 256;
+	private final long DISPATCH_INTERVAL_NANOS = 5_000_000;
+	private static final int LOAD_BUFFER_FRAMES = 1024 * 16;
+
+	// lifecycle commands, applied in order by the audio thread
+	private static final int CMD_START = 0;
+	private static final int CMD_FRAME_POSITION = 1;
+	private static final int CMD_STOP = 2;
+	private static final int CMD_RELEASE = 3;
+	// settings, only their latest value per instance is applied
+	private static final int SET_VOLUME = 1;
+	private static final int SET_PAN = 2;
+	private static final int SET_SPEED = 4;
+	private static final int SET_LOOPING = 8;
+	private static final int SET_RECYCLE = 16;
+	private static final int SET_ALL = 31;
+
+	private final AudioCuePool availables;
 	private final float[] cue;
 	private final int cueFrameLength;
 	private final AudioCueCursor[] cursors;
 	private final int polyphony;
+	private final AudioCueCommandQueue commands;
+	private final AudioCueEventQueue events;
+	// the frame values read by the audio thread, reused per sample
+	private final float[] audioVals = new float[2];
 
 	private volatile boolean playerRunning;
+	// the thread of the own AudioCuePlayer, while open
+	private volatile Thread playerThread;
+	// the thread that last filled a buffer, never runs listeners
+	private volatile Thread audioThread;
 	private float[] readBuffer;
 
+	private volatile long underrunCount;
+	private final AtomicLong droppedEventCount = new AtomicLong();
+	private volatile Thread dispatcher;
+	private volatile boolean dispatching;
+	private volatile int queuedFramesTarget;
+
 
 	private String name;
 	/**
@@ -150,12 +189,14 @@ public class AudioCue
 	 * notifications of events pertaining to the {@code AudioCue}
 	 * and its playing or playable instances.
 	 * <p>
-	 * Notifications occur on the thread which processes the
-	 * audio signal, and includes events such as the starting,
-	 * stopping, and looping of instances. Implementations of
-	 * the methods that receive these notifications should be
-	 * coded for brevity in order to minimize extraneous
-	 * processing on the audio thread.
+	 * Instance events, such as the starting, stopping, and
+	 * looping of instances, are queued by the thread on which
+	 * they occur and, while the {@code AudioCue} is open,
+	 * delivered in order on a separate dispatcher thread. The
+	 * audio thread never runs listener code, so a slow
+	 * listener can not cause dropouts, but it does delay the
+	 * delivery of later events. When the {@code AudioCue} is
+	 * not open, events are delivered on the calling thread.
 	 *
 	 * @param listener a class implementing the
 	 * {@code AudioCueListener} interface
@@ -235,19 +276,27 @@ public class AudioCue
 			x -> (float)(Math.sin(Math.PI * (1 + x) / 4))
 		);
 
-		private final Function<Float, Float> left;
-		private final Function<Float, Float> right;
+		private final PanFunction left;
+		private final PanFunction right;
 
-		PanType(Function<Float, Float> left,
-				Function<Float, Float> right)
+		PanType(PanFunction left,
+				PanFunction right)
 		{
 			this.left = left;
 			this.right = right;
 		}
 	}
 
-	private Function<Float, Float> panL;
-	private Function<Float, Float> panR;
+	/*
+	 * Primitive pan function, so the audio thread doesn't box.
+	 */
+	private interface PanFunction
+	{
+		float apply(float pan);
+	}
+
+	private PanFunction panL;
+	private PanFunction panR;
 
 	/**
 	 * Assigns the type of panning to be used.
@@ -292,10 +341,12 @@ public class AudioCue
 
 	/**
 	 * Creates and returns a new AudioCue. A {@code URL}
-	 * for a WAV file to be loaded is provided. At this
-	 * point, only one format, known as "CD Quality", is
-	 * supported: 44100 frames per second, 16-bit encoding,
-	 * stereo, little-endian. The maximum number of
+	 * for a WAV file to be loaded is provided. Linear PCM
+	 * (8, 16, 24 or 32-bit, signed or unsigned, either byte
+	 * order) and 32 or 64-bit float encodings are supported.
+	 * Mono media is played on both channels, and media with
+	 * a sample rate other than 44100 frames per second is
+	 * resampled to "CD Quality" while loading. The maximum number of
 	 * concurrent playing instances is given as
 	 * the {@code polyphony} argument. The {@code polyphony}
 	 * value can not be changed. A large value may require
@@ -311,7 +362,7 @@ public class AudioCue
 	 * the maximum number of concurrent instances
 	 * @return AudioCue
 	 * @throws UnsupportedAudioFileException if the media
-	 * is not a WAV file of "CD Quality"
+	 * is not a WAV file of a supported encoding
 	 * @throws IOException if unable to load the file
 	 */
 	public static AudioCue makeStereoCue(URL url, int polyphony)
@@ -342,16 +393,17 @@ public class AudioCue
 		this.polyphony = polyphony;
 		this.name = name;
 
-		availables =
-			new LinkedBlockingDeque<AudioCueCursor>(polyphony);
+		availables = new AudioCuePool(polyphony);
 		cursors = new AudioCueCursor[polyphony];
 
 		for (int i = 0; i < polyphony; i++)
 		{
 			cursors[i] = new AudioCueCursor(i);
 			cursors[i].resetInstance();
-			availables.add(cursors[i]);
+			availables.offer(i);
 		}
+		commands = new AudioCueCommandQueue(COMMAND_QUEUE_SIZE);
+		events = new AudioCueEventQueue(EVENT_QUEUE_SIZE);
 
 		// default pan calculation function
 		setPanType(PanType.CENTER_LINEAR);
@@ -359,59 +411,103 @@ public class AudioCue
 		listeners = new CopyOnWriteArrayList<AudioCueListener>();
 	}
 
-	// Currently assumes stereo format ("CD Quality")
+	// Decodes any linear PCM or float format to stereo, "CD Quality"
 	private static float[] loadURL(URL url) throws
 		UnsupportedAudioFileException, IOException
 	{
-		AudioInputStream ais = AudioSystem.getAudioInputStream(url);
+		AudioInputStream ais = toDecodableStream(
+			AudioSystem.getAudioInputStream(url));
+		PcmDecoder decoder = PcmDecoder.forFormat(ais.getFormat());
+		int frameSize = decoder.getFrameSize();
+
+		// a clip longer than this is cut off at this length
+		final int maxFrames = Integer.MAX_VALUE >> 1;
+		long frameLength = ais.getFrameLength();
+
+		// a stream that doesn't report its rate is taken to be
+		// at the output rate
+		float sourceRate = ais.getFormat().getSampleRate() > 0
+			? ais.getFormat().getSampleRate() : audioFormat.getSampleRate();
+
+		// stereo output, so two entries per frame. The reported
+		// length may be unknown (or bogus for streamed files), so
+		// it is only trusted up to a few minutes, after which the
+		// array grows as data arrives.
+		long trusted = (long)sourceRate * 60 * 5;
+		int framesCount = (int)(frameLength < 0
+			? trusted : Math.min(frameLength, trusted));
+		float[] temp = new float[framesCount * 2];
 
-		int framesCount = 0;
-		if (ais.getFrameLength() > Integer.MAX_VALUE >> 1)
+		int bytesRead = 0;
+		int leftover = 0;
+		int clipFrame = 0;
+		byte[] buffer = new byte[frameSize * LOAD_BUFFER_FRAMES];
+		while((bytesRead = ais.read(buffer, leftover,
+			buffer.length - leftover)) != -1)
 		{
-			System.out.println(
-				"WARNING: Clip is too large to entirely fit!");
-			framesCount = Integer.MAX_VALUE >> 1;
+			int available = leftover + bytesRead;
+			int frames = available / frameSize;
+			if (clipFrame + frames > framesCount
+				&& framesCount < maxFrames)
+			{
+				framesCount = (int)Math.min(maxFrames,
+					Math.max((long)framesCount * 2, clipFrame + frames));
+				temp = Arrays.copyOf(temp, framesCount * 2);
+			}
+			frames = Math.min(frames, framesCount - clipFrame);
+			decoder.decode(buffer, frames, temp, clipFrame);
+			clipFrame += frames;
+
+			// keep a partially read frame for the next read
+			leftover = available % frameSize;
+			System.arraycopy(buffer, available - leftover,
+				buffer, 0, leftover);
 		}
-		else
+
+		if (clipFrame < framesCount)
 		{
-			framesCount = (int)ais.getFrameLength();
+			temp = Arrays.copyOf(temp, clipFrame * 2);
 		}
 
-		// stereo output, so two entries per frame
-		float[] temp = new float[framesCount * 2];
-		long tempCountdown = temp.length;
+		// bring other rates (e.g. 48000 fps) to the output rate
+		Resampler resampler = new Resampler(
+			sourceRate, audioFormat.getSampleRate());
+		return resampler.resample(temp);
+	}
 
-		int bytesRead = 0;
-		int bufferIdx;
-		int clipIdx = 0;
-		byte[] buffer = new byte[1024];
-		while((bytesRead = ais.read(buffer, 0, 1024)) != -1)
+	/*
+	 * Streams that are neither linear PCM nor float data (e.g.
+	 * u-law or a-law) are converted by AudioSystem to 16-bit PCM.
+	 */
+	private static AudioInputStream toDecodableStream(
+		AudioInputStream ais) throws UnsupportedAudioFileException
+	{
+		AudioFormat format = ais.getFormat();
+		AudioFormat.Encoding encoding = format.getEncoding();
+		if (encoding == AudioFormat.Encoding.PCM_SIGNED
+			|| encoding == AudioFormat.Encoding.PCM_UNSIGNED
+			|| encoding == AudioFormat.Encoding.PCM_FLOAT)
 		{
-			bufferIdx = 0;
-			for (int i = 0, n = (bytesRead >> 1); i < n; i ++)
-			{
-				if ( tempCountdown-- >= 0)
-				{
-					temp[clipIdx++] =
-						( buffer[bufferIdx++] & 0xff )
-							| ( buffer[bufferIdx++] << 8 ) ;
-				}
-			}
+			return ais;
 		}
 
-		for (int i = 0; i < temp.length; i++)
+		AudioFormat pcm = new AudioFormat(format.getSampleRate(), 16,
+			format.getChannels(), true, false);
+		if (!AudioSystem.isConversionSupported(pcm, format))
 		{
-			temp[i] = temp[i] / 32767f;
+			throw new UnsupportedAudioFileException(
+				"Unsupported format: " + format);
 		}
-
-		return temp;
+		return AudioSystem.getAudioInputStream(pcm, ais);
 	}
 
 	/**
 	 * Allocates resources for media play, using default
-	 * {@code Mixer}, thread priority and buffer size values. The
-	 * {@code AudioCueListener} will broadcast a notification
-	 * using the method {@code audioCueOpened}.
+	 * {@code Mixer}, thread priority and buffer size values.
+	 * The amount of audio queued on the output line adapts
+	 * between 1024 and 8192 frames, growing when underruns
+	 * occur. The {@code AudioCueListener} will broadcast a
+	 * notification using the method {@code audioCueOpened}.
 	 *
 	 * @throws IllegalStateException if the player is already
 	 * open
@@ -420,7 +516,8 @@ public class AudioCue
 	 */
 	public void open() throws IllegalStateException, LineUnavailableException
 	{
-		open(null, DEFAULT_BUFFER_FRAMES, Thread.MAX_PRIORITY);
+		open(null, DEFAULT_BUFFER_FRAMES, DEFAULT_MAX_BUFFER_FRAMES,
+			Thread.MAX_PRIORITY);
 	}
 
 	/**
@@ -458,6 +555,39 @@ public class AudioCue
 	 */
 	public void open(Mixer mixer, int bufferFrames, int threadPriority)
 		throws LineUnavailableException, IllegalStateException
+	{
+		open(mixer, bufferFrames, bufferFrames, threadPriority);
+	}
+
+	/**
+	 * Allocates resources for media play, with an adaptive
+	 * amount of buffering. Audio is processed in blocks of
+	 * {@code minBufferFrames}, and the audio thread keeps
+	 * between {@code minBufferFrames} and {@code maxBufferFrames}
+	 * frames queued on the output line ahead of the next block.
+	 * Each time the line runs dry (an <em>underrun</em>, heard
+	 * as a crackle) the queued amount doubles, up to the
+	 * maximum. After a stretch without underruns it shrinks
+	 * again, back towards the minimum, to keep latency low.
+	 * Underruns are counted, see {@code getUnderrunCount}.
+	 * The {@code AudioCueListener} will broadcast a notification
+	 * using the method {@code audioCueOpened}.
+	 *
+	 * @param mixer a {@code javax.sound.sampled.Mixer}
+	 * @param minBufferFrames an {@code int} specifying the frames
+	 * processed per iteration and the least amount kept queued
+	 * @param maxBufferFrames an {@code int} specifying the most
+	 * frames kept queued on the output line
+	 * @param threadPriority an {@code int} specifying the priority
+	 * level of the thread, ranging [1, 10]
+	 * @throws LineUnavailableException if unable to obtain a
+	 * {@code SourceDataLine} for the player
+	 * @throws IllegalStateException if the {@code AudioCue} is
+	 * already open
+	 */
+	public void open(Mixer mixer, int minBufferFrames,
+		int maxBufferFrames, int threadPriority)
+		throws LineUnavailableException, IllegalStateException
 	{
 		if (playerRunning)
 		{
@@ -465,14 +595,45 @@ public class AudioCue
 				"Already open.");
 		}
 
-		AudioCuePlayer player = new AudioCuePlayer(mixer, bufferFrames);
+		AudioCuePlayer player = new AudioCuePlayer(mixer,
+			minBufferFrames, Math.max(minBufferFrames, maxBufferFrames));
 		Thread t = new Thread(player);
 
 		t.setPriority(threadPriority);
+		startDispatcher();
 		playerRunning = true;
+		playerThread = t;
 		t.start();
 
-		broadcastOpenEvent(t.getPriority(), bufferFrames, name);
+		broadcastOpenEvent(t.getPriority(), minBufferFrames, name);
+	}
+
+	/**
+	 * Returns the number of times the output line ran out of
+	 * audio data since the {@code AudioCue} was created. An
+	 * underrun means the audio thread did not keep up and is
+	 * usually heard as a click or crackle. Only counted when
+	 * the {@code AudioCue} plays on its own line, not when
+	 * opened with an {@code AudioMixer}.
+	 *
+	 * @return the number of underruns
+	 */
+	public long getUnderrunCount()
+	{
+		return underrunCount;
+	}
+
+	/**
+	 * Returns the number of frames the audio thread currently
+	 * aims to keep queued on the output line. This adapts
+	 * between the bounds given to {@code open}.
+	 *
+	 * @return the current queued frames target, or 0 if not
+	 * playing on its own line
+	 */
+	public int getBufferFrames()
+	{
+		return queuedFramesTarget;
 	}
 
 	/**
@@ -493,6 +654,7 @@ public class AudioCue
 			throw new IllegalStateException(
 				"Already open.");
 		}
+		startDispatcher();
 		playerRunning = true;
 		this.audioMixer = audioMixer;
 
@@ -530,10 +692,86 @@ public class AudioCue
 		}
 
 		playerRunning = false;
+		// Events it raises on the way out are still dispatched.
+		awaitPlayerThread();
+		stopDispatcher();
 
 		broadcastCloseEvent(name);
 	}
 
+	/**
+	 * Returns the number of instance events that could not be
+	 * delivered to listeners because the event queue was full,
+	 * which happens only if listeners take very long to
+	 * process events.
+	 *
+	 * @return the number of dropped instance events
+	 */
+	public long getDroppedEventCount()
+	{
+		return droppedEventCount.get();
+	}
+
+	/*
+	 * Waits for the own audio thread to leave its loop, which
+	 * takes at most a buffer and the draining of the line.
+	 */
+	private void awaitPlayerThread()
+	{
+		Thread t = playerThread;
+		playerThread = null;
+		if (t == null || t == Thread.currentThread()) return;
+
+		boolean interrupted = false;
+		while (t.isAlive())
+		{
+			try
+			{
+				t.join();
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	private void startDispatcher()
+	{
+		dispatching = true;
+		Thread t = new Thread(new AudioCueEventDispatcher(),
+			"AudioCue events: " + name);
+		t.setDaemon(true);
+		t.start();
+		dispatcher = t;
+	}
+
+	/*
+	 * Stops the dispatcher once it has delivered the queued
+	 * events. Waits for that, unless called from a listener.
+	 */
+	private void stopDispatcher()
+	{
+		Thread t = dispatcher;
+		dispatching = false;
+		dispatcher = null;
+		if (t == null) return;
+
+		LockSupport.unpark(t);
+		if (t != Thread.currentThread())
+		{
+			try
+			{
+				t.join(1000);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
 	/**
 	 * Gets the media length in sample frames.
 	 *
@@ -572,13 +810,15 @@ public class AudioCue
 	 */
 	public int obtainInstance()
 	{
-		AudioCueCursor aci = availables.pollLast();
+		int hook = availables.poll();
 
-		if (aci == null) return -1;
+		if (hook < 0) return -1;
 		else
 		{
+			AudioCueCursor aci = cursors[hook];
+			aci.playRequested = false;
 			aci.isActive = true;
-			broadcastCreateInstanceEvent(aci);
+			broadcastInstanceEvent(OBTAIN_INSTANCE, aci.hook, 0);
 			return aci.hook;
 		}
 	}
@@ -587,16 +827,25 @@ public class AudioCue
 	 * Releases an {@code AudioCue} instance, making
 	 * it available for a new {@code play} method.
 	 * The {@code AudioCueListener} method {@code releaseInstance}
-	 * will be called.
+	 * will be called. Releasing an instance that is already
+	 * in the pool of available instances does nothing.
 	 *
 	 * @param instanceHook {@code int} hook identifying the cue
 	 * instance to be released
 	 */
 	public void releaseInstance(int instanceHook)
 	{
-		cursors[instanceHook].resetInstance();
-		availables.offerFirst(cursors[instanceHook]);
-		broadcastReleaseEvent(cursors[instanceHook]);
+		AudioCueCursor acc = cursors[instanceHook];
+		acc.isActive = false;
+		acc.playRequested = false;
+		acc.resetRequests();
+		// Queued before the hook is pooled, so the audio thread
+		// resets the cursor before any command of a new owner.
+		submitCommand(CMD_RELEASE, instanceHook, 0);
+		if (availables.offer(instanceHook))
+		{
+			broadcastInstanceEvent(RELEASE_INSTANCE, instanceHook, 0);
+		}
 	}
 
 	/**
@@ -678,11 +927,8 @@ public class AudioCue
 	public int play(double volume, double pan, double speed, int loop)
 	{
 		int idx = obtainInstance();
-		if (idx < 0)
-		{
-			System.out.println("All available notes are playing.");
-			return idx;
-		}
+		// all instances are in use, the caller sees the -1
+		if (idx < 0) return idx;
 
 		setVolume(idx, volume);
 		setPan(idx, pan);
@@ -699,7 +945,10 @@ public class AudioCue
 	 * Plays the specified {@code AudioCue} instance from its current
 	 * position within the sound cue, using current volume, pan,
 	 * and speed settings. The {@code AudioCueListener} method
-	 * {@code startInstance} will be called.
+	 * {@code startInstance} will be called. While the
+	 * {@code AudioCue} is open, the instance begins playing at
+	 * the next buffer boundary, after any pending settings
+	 * have been applied.
 	 *
 	 * @param instanceHook an {@code int} used to identify an
 	 * {@code AudioCue} instance
@@ -708,15 +957,17 @@ public class AudioCue
 	 */
 	public void start(int instanceHook) throws IllegalStateException
 	{
-		if (!cursors[instanceHook].isActive ||
-			cursors[instanceHook].isPlaying)
+		AudioCueCursor acc = cursors[instanceHook];
+		if (!acc.isActive || (acc.playRequested && acc.isPlaying))
 		{
 			throw new IllegalStateException("Illegal state, "
 				+ name + ", instance:" + instanceHook);
 		}
 
-		cursors[instanceHook].isPlaying = true;
-		broadcastStartEvent(cursors[instanceHook]);
+		acc.playRequested = true;
+		submitCommand(CMD_START, instanceHook, 0);
+		broadcastInstanceEvent(START_INSTANCE, instanceHook,
+			cursors[instanceHook].idx);
 	};
 
 	/**
@@ -740,9 +991,9 @@ public class AudioCue
 				+ name + ", instance:" + instanceHook);
 		}
 
-		cursors[instanceHook].isPlaying = false;
-		broadcastStopEvent(cursors[instanceHook]);
-		cursors[instanceHook].recycleWhenDone = false;
+		cursors[instanceHook].playRequested = false;
+		cursors[instanceHook].requestedRecycle = false;
+		submitCommand(CMD_STOP, instanceHook, 0);
 	};
 
 	/**
@@ -771,8 +1022,8 @@ public class AudioCue
 				+ name + ", instance:" + instanceHook);
 		}
 
-		cursors[instanceHook].idx = Math.max(0, Math.min(
-			getFrameLength() - 1, (float)frame));
+		submitCommand(CMD_FRAME_POSITION, instanceHook,
+			Math.max(0, Math.min(getFrameLength() - 1, frame)));
 	};
 
 	/**
@@ -826,8 +1077,8 @@ public class AudioCue
 
 		float samples = (audioFormat.getFrameRate() * milliseconds)
 			/ 1000f;
-		cursors[instanceHook].idx =
-			Math.max(0,	Math.min(cueFrameLength - 1, samples));
+		submitCommand(CMD_FRAME_POSITION, instanceHook,
+			Math.max(0,	Math.min(cueFrameLength - 1, samples)));
 	};
 
 	/**
@@ -856,8 +1107,8 @@ public class AudioCue
 				+ name + ", instance:" + instanceHook);
 		}
 
-		cursors[instanceHook].idx = (float)((cueFrameLength - 1) *
-			Math.max(0, Math.min(1, normal)));
+		submitCommand(CMD_FRAME_POSITION, instanceHook,
+			(cueFrameLength - 1) * Math.max(0, Math.min(1, normal)));
 	};
 
 	/**
@@ -893,21 +1144,9 @@ public class AudioCue
 				+ instanceHook + " is inactive");
 		}
 
-		cursors[instanceHook].targetVolume =
+		cursors[instanceHook].requestedVolume =
 			(float)Math.min(1, Math.max(0, volume));
-		if (cursors[instanceHook].isPlaying)
-		{
-			cursors[instanceHook].targetVolumeIncr =
-				(cursors[instanceHook].targetVolume
-					- cursors[instanceHook].volume)
-					/ VOLUME_STEPS;
-			cursors[instanceHook].targetVolumeSteps = VOLUME_STEPS;
-		}
-		else
-		{
-			cursors[instanceHook].volume =
-				cursors[instanceHook].targetVolume;
-		}
+		changeSetting(cursors[instanceHook], SET_VOLUME);
 	};
 
 	/**
@@ -928,7 +1167,7 @@ public class AudioCue
 				+ instanceHook + " is inactive");
 		}
 
-		return cursors[instanceHook].volume;
+		return cursors[instanceHook].requestedVolume;
 	};
 
 	/**
@@ -962,21 +1201,9 @@ public class AudioCue
 			throw new IllegalStateException(name + " instance: "
 				+ instanceHook + " is inactive");
 		}
-		cursors[instanceHook].targetPan =
+		cursors[instanceHook].requestedPan =
 			(float)Math.min(1, Math.max(-1, pan));
-		if (cursors[instanceHook].isPlaying)
-		{
-			cursors[instanceHook].targetPanIncr =
-				(cursors[instanceHook].targetPan
-					- cursors[instanceHook].pan)
-					/ PAN_STEPS;
-			cursors[instanceHook].targetPanSteps = PAN_STEPS;
-		}
-		else
-		{
-			cursors[instanceHook].pan =
-				cursors[instanceHook].targetPan;
-		}
+		changeSetting(cursors[instanceHook], SET_PAN);
 	};
 
 	/**
@@ -997,7 +1224,7 @@ public class AudioCue
 				+ instanceHook + " is inactive");
 		}
 
-		return cursors[instanceHook].pan;
+		return cursors[instanceHook].requestedPan;
 	};
 
 	/**
@@ -1038,20 +1265,9 @@ public class AudioCue
 				+ instanceHook + " is inactive");
 		}
 
-		cursors[instanceHook].targetSpeed =
+		cursors[instanceHook].requestedSpeed =
 			(float)Math.min(8, Math.max(0.125, speed));
-		if (cursors[instanceHook].isPlaying)
-		{
-			cursors[instanceHook].targetSpeedIncr =
-				(cursors[instanceHook].targetSpeed
-					- cursors[instanceHook].speed) / SPEED_STEPS;
-			cursors[instanceHook].targetSpeedSteps = SPEED_STEPS;
-		}
-		else
-		{
-			cursors[instanceHook].speed =
-				cursors[instanceHook].targetSpeed;
-		}
+		changeSetting(cursors[instanceHook], SET_SPEED);
 	};
 
 	/**
@@ -1074,7 +1290,7 @@ public class AudioCue
 				+ instanceHook + " is inactive");
 		}
 
-		return cursors[instanceHook].speed;
+		return cursors[instanceHook].requestedSpeed;
 	};
 
 	/**
@@ -1099,7 +1315,8 @@ public class AudioCue
 				+ instanceHook + " is inactive");
 		}
 
-		cursors[instanceHook].loop = loops;
+		cursors[instanceHook].requestedLoop = loops;
+		changeSetting(cursors[instanceHook], SET_LOOPING);
 	};
 
 	/**
@@ -1129,7 +1346,8 @@ public class AudioCue
 				+ instanceHook + " is inactive");
 		}
 
-		cursors[instanceHook].recycleWhenDone = recycleWhenDone;
+		cursors[instanceHook].requestedRecycle = recycleWhenDone;
+		changeSetting(cursors[instanceHook], SET_RECYCLE);
 	}
 
 	/**
@@ -1188,8 +1406,21 @@ public class AudioCue
 	{
 		volatile boolean isPlaying;
 		volatile boolean isActive;
+		// caller side: started and not stopped since, isPlaying
+		// only follows once the audio thread took the command
+		volatile boolean playRequested;
 		final int hook;
 
+		// caller side: the latest settings, which the audio
+		// thread takes over at its next buffer boundary
+		volatile float requestedVolume;
+		volatile float requestedPan;
+		volatile float requestedSpeed = 1;
+		volatile int requestedLoop;
+		volatile boolean requestedRecycle;
+		// the SET_* bits of the settings changed since then
+		final AtomicInteger changed = new AtomicInteger();
+
 		float idx;
 		float speed;
 		float volume;
@@ -1221,6 +1452,28 @@ public class AudioCue
 		void resetInstance()
 		{
 			isActive = false;
+			resetSettings();
+			resetRequests();
+		}
+
+		/*
+		 * Caller side defaults, set before the hook is pooled
+		 * so a new owner starts from them.
+		 */
+		void resetRequests()
+		{
+			requestedVolume = 0;
+			requestedPan = 0;
+			requestedSpeed = 1;
+			requestedLoop = 0;
+			requestedRecycle = false;
+		}
+
+		/*
+		 * Audio thread code while open, the caller owns isActive.
+		 */
+		void resetSettings()
+		{
 			isPlaying = false;
 			idx = 0;
 			speed = 1;
@@ -1235,6 +1488,276 @@ public class AudioCue
 		}
 	}
 
+	/*
+	 * Hands a lifecycle command over to the audio thread, the
+	 * only thread that writes the cursors while the AudioCue is
+	 * open. While it is not open there is no audio thread
+	 * reading the cursors, so the command is applied
+	 * immediately. Only settings are changed at a high rate,
+	 * and those never go through the ring, so a full ring means
+	 * the audio thread stalled (e.g. an AudioMixer that is not
+	 * started). Dropping the command would leave the instance
+	 * in the wrong state, so that fails instead.
+	 */
+	private void submitCommand(int type, int hook, double value)
+	{
+		if (!playerRunning)
+		{
+			applyCommand(type, hook, value);
+			return;
+		}
+
+		if (!commands.offer(type, hook, value))
+		{
+			throw new IllegalStateException("Command queue full, "
+				+ name + " is not being played, instance:" + hook);
+		}
+	}
+
+	/*
+	 * Flags a setting whose requested value the caller just
+	 * changed. The audio thread takes over the latest value at
+	 * its next buffer boundary, so changes in between coalesce
+	 * and the caller never waits. While the AudioCue is not
+	 * open, the setting is applied immediately.
+	 */
+	private void changeSetting(AudioCueCursor acc, int setting)
+	{
+		int settings;
+		do
+		{
+			settings = acc.changed.get();
+		}
+		while (!acc.changed.compareAndSet(settings, settings | setting));
+
+		if (!playerRunning) takeSettings(acc);
+	}
+
+	/*
+	 * Audio thread code, unless the AudioCue is not open.
+	 */
+	private void applyCommand(int type, int hook, double value)
+	{
+		AudioCueCursor acc = cursors[hook];
+		switch (type)
+		{
+			case CMD_START:
+				// starts with the settings made before it
+				takeSettings(acc);
+				if (acc.isActive) acc.isPlaying = true;
+				break;
+			case CMD_FRAME_POSITION:
+				acc.idx = (float)value;
+				break;
+			case CMD_STOP:
+				acc.isPlaying = false;
+				acc.recycleWhenDone = false;
+				broadcastInstanceEvent(STOP_INSTANCE, hook, acc.idx);
+				break;
+			case CMD_RELEASE:
+				acc.resetSettings();
+				// the caller reset the requests before pooling,
+				// a new owner may have made its own since
+				acc.changed.set(0);
+				applySettings(acc, SET_ALL);
+				break;
+		}
+	}
+
+	/*
+	 * Audio thread code, unless the AudioCue is not open.
+	 */
+	private void takeSettings(AudioCueCursor acc)
+	{
+		applySettings(acc, acc.changed.getAndSet(0));
+	}
+
+	/*
+	 * Audio thread code, unless the AudioCue is not open.
+	 * Changes of a playing instance are spread out to prevent
+	 * discontinuities.
+	 */
+	private void applySettings(AudioCueCursor acc, int settings)
+	{
+		if ((settings & SET_VOLUME) != 0)
+		{
+			acc.targetVolume = acc.requestedVolume;
+			if (acc.isPlaying)
+			{
+				acc.targetVolumeIncr =
+					(acc.targetVolume - acc.volume) / VOLUME_STEPS;
+				acc.targetVolumeSteps = VOLUME_STEPS;
+			}
+			else
+			{
+				acc.volume = acc.targetVolume;
+			}
+		}
+		if ((settings & SET_PAN) != 0)
+		{
+			acc.targetPan = acc.requestedPan;
+			if (acc.isPlaying)
+			{
+				acc.targetPanIncr =
+					(acc.targetPan - acc.pan) / PAN_STEPS;
+				acc.targetPanSteps = PAN_STEPS;
+			}
+			else
+			{
+				acc.pan = acc.targetPan;
+			}
+		}
+		if ((settings & SET_SPEED) != 0)
+		{
+			acc.targetSpeed = acc.requestedSpeed;
+			if (acc.isPlaying)
+			{
+				acc.targetSpeedIncr =
+					(acc.targetSpeed - acc.speed) / SPEED_STEPS;
+				acc.targetSpeedSteps = SPEED_STEPS;
+			}
+			else
+			{
+				acc.speed = acc.targetSpeed;
+			}
+		}
+		if ((settings & SET_LOOPING) != 0)
+		{
+			acc.loop = acc.requestedLoop;
+		}
+		if ((settings & SET_RECYCLE) != 0)
+		{
+			acc.recycleWhenDone = acc.requestedRecycle;
+		}
+	}
+
+	/*
+	 * A lock-free, allocation-free pool of available instance
+	 * hooks, kept as a Treiber stack of indices into the fixed
+	 * cursors array. The top of the stack is packed into a
+	 * single long together with a version counter so that a
+	 * hook which is taken and returned between a read and a
+	 * compare-and-set can not corrupt the stack (ABA). Neither
+	 * side ever blocks, so the audio thread can safely return
+	 * recycled instances.
+	 */
+	private static class AudioCuePool
+	{
+		private static final int EMPTY = -1;
+
+		private final int[] next;
+		// 1 while a hook is in the pool, guards double releases
+		private final AtomicIntegerArray pooled;
+		private final AtomicLong top = new AtomicLong(pack(EMPTY, 0));
+
+		AudioCuePool(int size)
+		{
+			next = new int[size];
+			pooled = new AtomicIntegerArray(size);
+		}
+
+		private static long pack(int hook, long version)
+		{
+			return (version << 32) | (hook & 0xffffffffL);
+		}
+
+		/*
+		 * Returns an available hook, or -1 if none are left.
+		 */
+		int poll()
+		{
+			while (true)
+			{
+				long t = top.get();
+				int hook = (int)t;
+				if (hook == EMPTY) return -1;
+
+				if (top.compareAndSet(t, pack(next[hook], (t >>> 32) + 1)))
+				{
+					pooled.set(hook, 0);
+					return hook;
+				}
+			}
+		}
+
+		/*
+		 * Returns the hook to the pool, false if it already was.
+		 */
+		boolean offer(int hook)
+		{
+			if (!pooled.compareAndSet(hook, 0, 1)) return false;
+
+			while (true)
+			{
+				long t = top.get();
+				next[hook] = (int)t;
+				if (top.compareAndSet(t, pack(hook, (t >>> 32) + 1)))
+				{
+					return true;
+				}
+			}
+		}
+	}
+
+	/*
+	 * A bounded single-producer, single-consumer ring of
+	 * lifecycle commands. Commands are stored as primitives in
+	 * parallel arrays so neither side allocates. The audio
+	 * thread is the only consumer and drains the ring at each
+	 * buffer boundary without taking a lock. Producers are
+	 * serialized on the ring itself, which only ever
+	 * contends with other producers, never with the audio
+	 * thread.
+	 */
+	private class AudioCueCommandQueue
+	{
+		private final int mask;
+		private final int[] types;
+		private final int[] hooks;
+		private final double[] values;
+
+		// next slot to read, only written by the consumer
+		private volatile long head;
+		// next slot to write, only written by the producer
+		private volatile long tail;
+
+		AudioCueCommandQueue(int capacity)
+		{
+			int size = Integer.highestOneBit(capacity - 1) << 1;
+			mask = size - 1;
+			types = new int[size];
+			hooks = new int[size];
+			values = new double[size];
+		}
+
+		synchronized boolean offer(int type, int hook, double value)
+		{
+			long t = tail;
+			if (t - head > mask) return false;
+
+			int slot = (int)t & mask;
+			types[slot] = type;
+			hooks[slot] = hook;
+			values[slot] = value;
+			tail = t + 1; // publishes the slot
+			return true;
+		}
+
+		// Audio thread code.
+		void drain()
+		{
+			long h = head;
+			long t = tail;
+			while (h < t)
+			{
+				int slot = (int)h & mask;
+				applyCommand(types[slot], hooks[slot], values[slot]);
+				h++;
+			}
+			head = h; // frees the slots
+		}
+	}
+
 	/*
 	 * "Opening" line sets the SourceDataLine waiting for data.
 	 * "Run" will start loop that will either send out silence
@@ -1244,32 +1767,86 @@ public class AudioCue
 	{
 		private SourceDataLine sdl;
 		private final int sdlBufferSize;
+		private final int blockFrames;
+		private final int minQueuedFrames;
+		private final int maxQueuedFrames;
+		private final int lineFrames;
 		private byte[] audioBytes;
 
-		AudioCuePlayer(Mixer mixer, int bufferFrames) throws
-			LineUnavailableException
+		AudioCuePlayer(Mixer mixer, int minBufferFrames,
+			int maxBufferFrames) throws LineUnavailableException
 		{
-			readBuffer = new float[bufferFrames * 2];
-			sdlBufferSize = bufferFrames * 4;
+			blockFrames = minBufferFrames;
+			minQueuedFrames = minBufferFrames;
+			maxQueuedFrames = maxBufferFrames;
+			readBuffer = new float[blockFrames * 2];
+			sdlBufferSize = blockFrames * 4;
 			audioBytes = new byte[sdlBufferSize];
 
 			sdl = getSourceDataLine(mixer, info);
-			sdl.open(audioFormat, sdlBufferSize);
+			sdl.open(audioFormat, (maxQueuedFrames + blockFrames) * 4);
 			sdl.start();
+			lineFrames = sdl.getBufferSize() / 4;
+			queuedFramesTarget = minQueuedFrames;
 		}
 
 		// Audio Thread Code
 		public void run()
 		{
+			boolean started = false;
+			int cleanBuffers = 0;
 			while(playerRunning)
 			{
+				int queued = queuedFrames();
+				boolean underrun = started && queued == 0;
+
+				// Don't queue more than the target, it only adds latency
+				int excess = queued - queuedFramesTarget;
+				if (excess > 0)
+				{
+					LockSupport.parkNanos(framesToNanos(excess));
+					queued = queuedFrames();
+				}
+
+				long fillStart = System.nanoTime();
 				readBuffer = fillBuffer(readBuffer);
 				audioBytes = fromBufferToAudioBytes(audioBytes, readBuffer);
+				// The line ran dry while we were busy filling
+				underrun |= started
+					&& System.nanoTime() - fillStart > framesToNanos(queued);
+
 				sdl.write(audioBytes, 0, sdlBufferSize);
+				started = true;
+
+				if (underrun)
+				{
+					underrunCount++;
+					cleanBuffers = 0;
+					queuedFramesTarget = Math.min(maxQueuedFrames,
+						queuedFramesTarget * 2);
+				}
+				else if (++cleanBuffers >= SHRINK_AFTER_BUFFERS)
+				{
+					cleanBuffers = 0;
+					queuedFramesTarget = Math.max(minQueuedFrames,
+						queuedFramesTarget - blockFrames);
+				}
 			}
 			sdl.drain();
 			sdl.close();
 			sdl = null;
+			queuedFramesTarget = 0;
+		}
+
+		private int queuedFrames()
+		{
+			return lineFrames - sdl.available() / 4;
+		}
+
+		private long framesToNanos(int frames)
+		{
+			return (long)(frames * 1_000_000_000.0
+				/ audioFormat.getFrameRate());
 		}
 	}
 
@@ -1279,6 +1856,18 @@ public class AudioCue
 	 */
 	private float[] fillBuffer(float[] readBuffer)
 	{
+		audioThread = Thread.currentThread();
+		// Apply the commands and settings made since the
+		// previous buffer.
+		commands.drain();
+		for (int ci = 0; ci < polyphony; ci++)
+		{
+			if (cursors[ci].changed.get() != 0)
+			{
+				takeSettings(cursors[ci]);
+			}
+		}
+
 		// Start with 0-filled buffer, send out silence
 		// if nothing playing.
 		int bufferLength = readBuffer.length;
@@ -1317,8 +1906,7 @@ public class AudioCue
 					}
 
 					// get audioVals (with LERP for fractional idx)
-					float[] audioVals = new float[2];
-					audioVals = readFractionalFrame(audioVals, acc.idx);
+					readFractionalFrame(audioVals, acc.idx);
 
 					readBuffer[i] += (audioVals[0]
 						* acc.volume * panFactorL);
@@ -1343,24 +1931,27 @@ public class AudioCue
 						if (acc.loop == -1)
 						{
 							acc.idx = 0;
-							broadcastLoopEvent(acc);
+							broadcastInstanceEvent(LOOP, acc.hook, 0);
 						}
 						// loop specific number of times
 						else if (acc.loop > 0)
 						{
 							acc.loop--;
 							acc.idx = 0;
-							broadcastLoopEvent(acc);
+							broadcastInstanceEvent(LOOP, acc.hook, 0);
 						}
 						else // no more loops to do
 						{
 							acc.isPlaying = false;
-							broadcastStopEvent(acc);
+							broadcastInstanceEvent(STOP_INSTANCE, acc.hook, acc.idx);
 							if (acc.recycleWhenDone)
 							{
 								acc.resetInstance();
-								availables.offerFirst(acc);
-								broadcastReleaseEvent(acc);
+								if (availables.offer(acc.hook))
+								{
+									broadcastInstanceEvent(RELEASE_INSTANCE,
+										acc.hook, acc.idx);
+								}
 							}
 							break;
 						}
@@ -1457,62 +2048,140 @@ public class AudioCue
 	}
 
 
-	private void broadcastCreateInstanceEvent(AudioCueCursor acc)
+	/*
+	 * Queues an instance event for the dispatcher thread. This
+	 * neither allocates nor blocks, so it is safe to call from
+	 * the audio thread. Without a dispatcher (not open) there
+	 * is no audio thread, and listeners are called directly.
+	 */
+	private void broadcastInstanceEvent(AudioCueInstanceEvent.Type type,
+		int hook, double frame)
 	{
-		for (AudioCueListener acl:listeners)
+		if (listeners.isEmpty()) return;
+
+		long now = System.currentTimeMillis();
+		// Only delivered directly if no audio thread is involved.
+		// An AudioMixer may still fill a buffer after close, its
+		// events wait for the next dispatcher instead.
+		if (dispatcher == null && !playerRunning
+			&& Thread.currentThread() != audioThread)
 		{
-			acl.instanceEventOccurred(
-				new AudioCueInstanceEvent(
-					OBTAIN_INSTANCE,
-					this, acc.hook, 0
-				));
+			deliverInstanceEvent(type, hook, frame, now);
+		}
+		else if (!events.offer(type.ordinal(), hook, frame, now))
+		{
+			droppedEventCount.incrementAndGet();
 		}
 	}
 
-	private void broadcastReleaseEvent(AudioCueCursor acc)
+	private void deliverInstanceEvent(AudioCueInstanceEvent.Type type,
+		int hook, double frame, long time)
 	{
-		for (AudioCueListener acl:listeners)
+		AudioCueInstanceEvent event =
+			new AudioCueInstanceEvent(type, this, hook, frame, time);
+		for (AudioCueListener acl : listeners)
 		{
-			acl.instanceEventOccurred(
-				new AudioCueInstanceEvent(
-					RELEASE_INSTANCE,
-					this, acc.hook, acc.idx
-				));
+			acl.instanceEventOccurred(event);
 		}
 	}
 
-	private void broadcastStartEvent(AudioCueCursor acc)
+	/*
+	 * A bounded multi-producer, single-consumer queue of instance
+	 * events, stored as primitives in parallel arrays. Producers
+	 * (the audio thread and threads calling play, stop etc.)
+	 * claim a slot with a compare-and-set and publish it through
+	 * its sequence number, so they never block or allocate. The
+	 * dispatcher thread is the only consumer.
+	 */
+	private class AudioCueEventQueue
 	{
-		for (AudioCueListener acl:listeners)
+		private final int mask;
+		private final int[] types;
+		private final int[] hooks;
+		private final double[] frames;
+		private final long[] times;
+		// slot is writable at seq == pos, readable at seq == pos + 1
+		private final AtomicLongArray sequences;
+		private final AtomicLong tail = new AtomicLong();
+		// only used by the dispatcher
+		private long head;
+
+		AudioCueEventQueue(int capacity)
 		{
-			acl.instanceEventOccurred(
-				new AudioCueInstanceEvent(
-					START_INSTANCE,
-					this, acc.hook, acc.idx
-				));
+			int size = Integer.highestOneBit(capacity - 1) << 1;
+			mask = size - 1;
+			types = new int[size];
+			hooks = new int[size];
+			frames = new double[size];
+			times = new long[size];
+			sequences = new AtomicLongArray(size);
+			for (int i = 0; i < size; i++)
+			{
+				sequences.set(i, i);
+			}
 		}
-	}
 
-	private void broadcastLoopEvent(AudioCueCursor acc)
-	{
-		for (AudioCueListener acl:listeners)
+		boolean offer(int type, int hook, double frame, long time)
 		{
-			acl.instanceEventOccurred(
-				new AudioCueInstanceEvent(
-					LOOP, this, acc.hook, 0
-				));
+			while (true)
+			{
+				long t = tail.get();
+				int slot = (int)t & mask;
+				long seq = sequences.get(slot);
+				if (seq < t) return false; // full
+				if (seq == t && tail.compareAndSet(t, t + 1))
+				{
+					types[slot] = type;
+					hooks[slot] = hook;
+					frames[slot] = frame;
+					times[slot] = time;
+					sequences.set(slot, t + 1);
+					return true;
+				}
+			}
+		}
+
+		// Dispatcher thread code, returns the number delivered.
+		int drain()
+		{
+			int delivered = 0;
+			while (true)
+			{
+				int slot = (int)head & mask;
+				if (sequences.get(slot) != head + 1) return delivered;
+
+				int type = types[slot];
+				int hook = hooks[slot];
+				double frame = frames[slot];
+				long time = times[slot];
+				sequences.set(slot, head + mask + 1);
+				head++;
+
+				deliverInstanceEvent(EVENT_TYPES[type], hook, frame, time);
+				delivered++;
+			}
 		}
 	}
 
-	private void broadcastStopEvent(AudioCueCursor acc)
+	private static final AudioCueInstanceEvent.Type[] EVENT_TYPES =
+		AudioCueInstanceEvent.Type.values();
+
+	/*
+	 * Delivers queued instance events to the listeners, off the
+	 * audio thread, until the AudioCue is closed.
+	 */
+	private class AudioCueEventDispatcher implements Runnable
 	{
-		for (AudioCueListener acl:listeners)
+		public void run()
 		{
-			acl.instanceEventOccurred(
-				new AudioCueInstanceEvent(
-					STOP_INSTANCE,
-					this, acc.hook, acc.idx
-				));
+			while (dispatching)
+			{
+				if (events.drain() == 0)
+				{
+					LockSupport.parkNanos(DISPATCH_INTERVAL_NANOS);
+				}
+			}
+			events.drain();
 		}
 	}
 }
\ No newline at end of file
@@ -156,9 +156,19 @@ public class AudioCueInstanceEvent {
 	 */
 	public AudioCueInstanceEvent(Type type, AudioCue source,
 								 int instanceID, double frame)
+	{
+		this(type, source, instanceID, frame,
+			System.currentTimeMillis());
+	}
+
+	/*
+	 * Used for events that are delivered after they occurred.
+	 */
+	AudioCueInstanceEvent(Type type, AudioCue source,
+						  int instanceID, double frame, long time)
 	{
 		this.type = type;
-		time = System.currentTimeMillis();
+		this.time = time;
 		this.source = source;
 		this.instanceID = instanceID;
 		this.frame = frame;
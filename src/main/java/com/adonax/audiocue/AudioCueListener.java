@@ -45,10 +45,13 @@ package com.adonax.audiocue;
  * following method:
  * <pre>    myAudioCue.addAudioCueListener(myAudioCueListener);</pre>
  * <p>
- * The execution of the implementing methods will occur on the
- * same thread that processes the audio data, and thus should
- * be coded for brevity in order to minimize extraneous processing
- * that might contribute to dropouts during playback.
+ * The {@code audioCueOpened} and {@code audioCueClosed} methods
+ * are called on the thread that opens or closes the
+ * {@code AudioCue}. Instance events are delivered, in order, on a
+ * dispatcher thread of the {@code AudioCue} and never on the
+ * thread that processes the audio data. Implementations should
+ * still be coded for brevity, as a slow listener delays the
+ * delivery of later events.
  *
  * @author Philip Freihofner
  * @version AudioCue 1.1
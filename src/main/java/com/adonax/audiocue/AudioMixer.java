@@ -36,6 +36,7 @@
  */
 package com.adonax.audiocue;
 
+import java.util.Arrays;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.sound.sampled.LineUnavailableException;
@@ -275,6 +276,7 @@ public class AudioMixer
 			LineUnavailableException
 		{
 			audioBytes = new byte[sdlByteBufferSize];
+			readBuffer = new float[readBufferSize];
 
 			sdl = AudioCue.getSourceDataLine(mixer, AudioCue.info);
 			sdl.open(AudioCue.audioFormat, sdlByteBufferSize);
@@ -300,7 +302,7 @@ public class AudioMixer
 					mixerTracks = trackCache;
 					trackCount = mixerTracks.length;
 				}
-				readBuffer = new float[readBufferSize];
+				Arrays.fill(readBuffer, 0);
 				readBuffer = fillBufferFromTracks(readBuffer);
 				audioBytes = AudioCue.fromBufferToAudioBytes(
 					audioBytes, readBuffer);
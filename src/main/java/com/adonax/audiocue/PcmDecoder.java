@@ -0,0 +1,266 @@
+/*
+ * This file is part of AudioCue,
+ * Copyright 2017 Philip Freihofner.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of
+ * its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.adonax.audiocue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioFormat.Encoding;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/*
+ * Converts PCM bytes of a given AudioFormat to normalized,
+ * interleaved stereo floats in the range [-1, 1]. A decoder is
+ * picked once per format, and each format has its own bulk
+ * conversion loop so no per-sample branching on sample size
+ * or byte order is needed. 16, 32-bit and float samples are
+ * read through typed NIO views in the media's byte order, and
+ * scaled in the same pass. Mono media is upmixed by feeding
+ * the single channel to both sides; for media with more than
+ * two channels the first two are used.
+ */
+final class PcmDecoder
+{
+	private enum Kind { PCM8, PCM16, PCM24, PCM32, FLOAT32, FLOAT64 }
+
+	private final Kind kind;
+	private final boolean signed;
+	private final boolean bigEndian;
+	private final int frameSize;
+	private final int sampleSize;
+	// byte offset of the right channel within a frame
+	private final int rightOffset;
+
+	// typed views on the last decoded byte array
+	private byte[] viewSource;
+	private ShortBuffer shorts;
+	private IntBuffer ints;
+	private FloatBuffer floats;
+	private DoubleBuffer doubles;
+
+	private PcmDecoder(Kind kind, AudioFormat format)
+	{
+		this.kind = kind;
+		this.signed = format.getEncoding() != Encoding.PCM_UNSIGNED;
+		this.bigEndian = format.isBigEndian();
+		this.frameSize = format.getFrameSize();
+		this.sampleSize = format.getSampleSizeInBits() / 8;
+		this.rightOffset = format.getChannels() > 1 ? sampleSize : 0;
+	}
+
+	/*
+	 * Returns a decoder for the given format, or throws if the
+	 * format is not linear PCM or float data that can be handled.
+	 */
+	static PcmDecoder forFormat(AudioFormat format)
+		throws UnsupportedAudioFileException
+	{
+		Encoding encoding = format.getEncoding();
+		int bits = format.getSampleSizeInBits();
+		if (format.getChannels() < 1 || format.getFrameSize()
+			!= format.getChannels() * (bits / 8))
+		{
+			throw new UnsupportedAudioFileException(
+				"Unsupported format: " + format);
+		}
+
+		if (encoding == Encoding.PCM_FLOAT)
+		{
+			if (bits == 32) return new PcmDecoder(Kind.FLOAT32, format);
+			if (bits == 64) return new PcmDecoder(Kind.FLOAT64, format);
+		}
+		else if (encoding == Encoding.PCM_SIGNED
+			|| encoding == Encoding.PCM_UNSIGNED)
+		{
+			switch (bits)
+			{
+				case 8: return new PcmDecoder(Kind.PCM8, format);
+				case 16: return new PcmDecoder(Kind.PCM16, format);
+				case 24: return new PcmDecoder(Kind.PCM24, format);
+				case 32: return new PcmDecoder(Kind.PCM32, format);
+			}
+		}
+		throw new UnsupportedAudioFileException(
+			"Unsupported format: " + format);
+	}
+
+	int getFrameSize()
+	{
+		return frameSize;
+	}
+
+	/*
+	 * Decodes {@code frames} frames from the start of {@code in}
+	 * into {@code out}, starting at stereo frame {@code outFrame}.
+	 */
+	void decode(byte[] in, int frames, float[] out, int outFrame)
+	{
+		if (in != viewSource)
+		{
+			ByteBuffer bytes = ByteBuffer.wrap(in).order(
+				bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+			shorts = bytes.asShortBuffer();
+			ints = bytes.asIntBuffer();
+			floats = bytes.asFloatBuffer();
+			doubles = bytes.asDoubleBuffer();
+			viewSource = in;
+		}
+
+		switch (kind)
+		{
+			case PCM8:
+				decode8(in, frames, out, outFrame);
+				break;
+			case PCM16:
+				decode16(frames, out, outFrame);
+				break;
+			case PCM24:
+				if (bigEndian) decode24BE(in, frames, out, outFrame);
+				else decode24LE(in, frames, out, outFrame);
+				break;
+			case PCM32:
+				decode32(frames, out, outFrame);
+				break;
+			case FLOAT32:
+				decodeFloat(frames, out, outFrame);
+				break;
+			case FLOAT64:
+				decodeDouble(frames, out, outFrame);
+				break;
+		}
+	}
+
+	private void decode8(byte[] in, int frames, float[] out, int outFrame)
+	{
+		// unsigned 8-bit centers on 128
+		final int bias = signed ? 0 : 128;
+		final float scale = 1 / 128f;
+		int o = outFrame * 2;
+		for (int f = 0, p = 0; f < frames; f++, p += frameSize)
+		{
+			out[o++] = ((((in[p] & 0xff) - bias) << 24) >> 24) * scale;
+			out[o++] = ((((in[p + rightOffset] & 0xff) - bias) << 24) >> 24) * scale;
+		}
+	}
+
+	private void decode16(int frames, float[] out, int outFrame)
+	{
+		final ShortBuffer in = shorts;
+		final int stride = frameSize / 2;
+		final int r = rightOffset / 2;
+		final float scale = 1 / 32768f;
+		int o = outFrame * 2;
+		for (int f = 0, p = 0; f < frames; f++, p += stride)
+		{
+			out[o++] = in.get(p) * scale;
+			out[o++] = in.get(p + r) * scale;
+		}
+	}
+
+	private void decode24LE(byte[] in, int frames, float[] out, int outFrame)
+	{
+		final int r = rightOffset;
+		final float scale = 1 / 8388608f;
+		int o = outFrame * 2;
+		for (int f = 0, p = 0; f < frames; f++, p += frameSize)
+		{
+			out[o++] = ((in[p] & 0xff) | ((in[p + 1] & 0xff) << 8)
+				| (in[p + 2] << 16)) * scale;
+			out[o++] = ((in[p + r] & 0xff) | ((in[p + r + 1] & 0xff) << 8)
+				| (in[p + r + 2] << 16)) * scale;
+		}
+	}
+
+	private void decode24BE(byte[] in, int frames, float[] out, int outFrame)
+	{
+		final int r = rightOffset;
+		final float scale = 1 / 8388608f;
+		int o = outFrame * 2;
+		for (int f = 0, p = 0; f < frames; f++, p += frameSize)
+		{
+			out[o++] = ((in[p] << 16) | ((in[p + 1] & 0xff) << 8)
+				| (in[p + 2] & 0xff)) * scale;
+			out[o++] = ((in[p + r] << 16) | ((in[p + r + 1] & 0xff) << 8)
+				| (in[p + r + 2] & 0xff)) * scale;
+		}
+	}
+
+	private void decode32(int frames, float[] out, int outFrame)
+	{
+		final IntBuffer in = ints;
+		final int stride = frameSize / 4;
+		final int r = rightOffset / 4;
+		final float scale = 1 / 2147483648f;
+		int o = outFrame * 2;
+		for (int f = 0, p = 0; f < frames; f++, p += stride)
+		{
+			out[o++] = in.get(p) * scale;
+			out[o++] = in.get(p + r) * scale;
+		}
+	}
+
+	private void decodeFloat(int frames, float[] out, int outFrame)
+	{
+		final FloatBuffer in = floats;
+		final int stride = frameSize / 4;
+		final int r = rightOffset / 4;
+		int o = outFrame * 2;
+		for (int f = 0, p = 0; f < frames; f++, p += stride)
+		{
+			out[o++] = in.get(p);
+			out[o++] = in.get(p + r);
+		}
+	}
+
+	private void decodeDouble(int frames, float[] out, int outFrame)
+	{
+		final DoubleBuffer in = doubles;
+		final int stride = frameSize / 8;
+		final int r = rightOffset / 8;
+		int o = outFrame * 2;
+		for (int f = 0, p = 0; f < frames; f++, p += stride)
+		{
+			out[o++] = (float)in.get(p);
+			out[o++] = (float)in.get(p + r);
+		}
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * This file is part of AudioCue,
+ * Copyright 2017 Philip Freihofner.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above
+ * copyright notice, this list of conditions and the following
+ * disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of
+ * its contributors may be used to endorse or promote products
+ * derived from this software without specific prior written
+ * permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.adonax.audiocue;
+
+/**
+ * The {@code Resampler} converts stereo audio data from one
+ * sample rate to another, for example to bring 48000 fps media
+ * to the 44100 fps "CD Quality" format used by {@code AudioCue}.
+ * <p>
+ * Conversion uses a polyphase windowed-sinc filter. The ratio of
+ * the two rates is reduced to a fraction <em>up/down</em>, and
+ * for each of the <em>up</em> possible fractional positions
+ * between two input frames (a <em>phase</em>) a Kaiser windowed
+ * sinc kernel is precomputed when the {@code Resampler} is
+ * created. Converting then costs a fixed number of
+ * multiply-adds per output sample, with no trigonometry in the
+ * inner loop. When the two rates have no small common ratio the
+ * number of phases is capped and the nearest phase is used.
+ * <p>
+ * When converting to a lower rate the cutoff frequency of the
+ * kernel is lowered accordingly (and the kernel widened) to
+ * prevent aliasing.
+ * <p>
+ * A {@code Resampler} holds no state besides its coefficient
+ * tables and can be shared between threads.
+ *
+ * @version AudioCue 1.1
+ * @see <a href="http://adonax.com/AudioCue">http://adonax.com/AudioCue</a>
+ */
+public class Resampler
+{
+	// zero crossings on either side of the kernel center at unity cutoff
+	private static final int HALF_TAPS = 16;
+	private static final int MAX_PHASES = 1024;
+	private static final double KAISER_BETA = 8.6;
+	// fraction of the lower Nyquist frequency to pass
+	private static final double ROLLOFF = 0.95;
+
+	private final int up;
+	private final int down;
+	private final int phases;
+	private final int taps;
+	private final float[] coefficients;
+
+	/**
+	 * Creates a {@code Resampler} for converting media
+	 * with the sample rate {@code fromRate} to media with
+	 * the sample rate {@code toRate}. Rates are rounded to
+	 * whole frames per second.
+	 *
+	 * @param fromRate a {@code float} specifying the frames
+	 * per second of the source data
+	 * @param toRate a {@code float} specifying the frames per
+	 * second of the resampled data
+	 * @throws IllegalArgumentException if either rate is not
+	 * positive
+	 */
+	public Resampler(float fromRate, float toRate)
+	{
+		int from = Math.round(fromRate);
+		int to = Math.round(toRate);
+		if (from <= 0 || to <= 0)
+		{
+			throw new IllegalArgumentException("Illegal rates, from: "
+				+ fromRate + ", to: " + toRate);
+		}
+
+		int gcd = gcd(from, to);
+		up = to / gcd;
+		down = from / gcd;
+		phases = Math.min(up, MAX_PHASES);
+
+		double cutoff = Math.min(1, (double)up / down) * ROLLOFF;
+		int halfTaps = (int)Math.ceil(HALF_TAPS / cutoff);
+		taps = halfTaps * 2;
+		coefficients = makeCoefficients(phases, halfTaps, cutoff);
+	}
+
+	/*
+	 * Builds the flat [phase][tap] table. Tap k of a phase
+	 * weighs input frame (i0 - halfTaps + 1 + k), where i0 is
+	 * the frame at or before the output position and the
+	 * phase is the fractional distance past i0.
+	 */
+	private static float[] makeCoefficients(int phases, int halfTaps,
+		double cutoff)
+	{
+		int taps = halfTaps * 2;
+		float[] table = new float[phases * taps];
+		double windowNorm = besselI0(KAISER_BETA);
+
+		for (int p = 0; p < phases; p++)
+		{
+			double frac = (double)p / phases;
+			double sum = 0;
+			for (int k = 0; k < taps; k++)
+			{
+				double d = (k - halfTaps + 1) - frac;
+				double x = d / halfTaps;
+				double window = Math.abs(x) >= 1 ? 0
+					: besselI0(KAISER_BETA * Math.sqrt(1 - x * x))
+						/ windowNorm;
+				double h = cutoff * sinc(cutoff * d) * window;
+				table[p * taps + k] = (float)h;
+				sum += h;
+			}
+			// normalize each phase to unity gain
+			for (int k = 0; k < taps; k++)
+			{
+				table[p * taps + k] /= sum;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Returns {@code true} if the source and target rates
+	 * differ, i.e. if {@code resample} does any work.
+	 *
+	 * @return {@code true} if resampling changes the data
+	 */
+	public boolean isConverting()
+	{
+		return up != down;
+	}
+
+	/**
+	 * Resamples interleaved stereo data. The data is presumed to
+	 * be scaled to the range [-1, 1]; the result is a new array,
+	 * unless no conversion is needed in which case the argument
+	 * is returned as is.
+	 *
+	 * @param stereo a {@code float} array of interleaved stereo
+	 * frames at the source rate
+	 * @return a {@code float} array of interleaved stereo frames
+	 * at the target rate
+	 */
+	public float[] resample(float[] stereo)
+	{
+		if (!isConverting()) return stereo;
+
+		final int inFrames = stereo.length / 2;
+		final int outFrames = (int)(((long)inFrames * up + down - 1) / down);
+		final float[] out = new float[outFrames * 2];
+		final int halfTaps = taps / 2;
+
+		for (int n = 0; n < outFrames; n++)
+		{
+			long pos = (long)n * down;
+			int i0 = (int)(pos / up);
+			// nearest phase, which may be the start of the next frame
+			int phase = (int)(((pos % up) * phases * 2 + up) / (up * 2L));
+			if (phase == phases)
+			{
+				i0++;
+				phase = 0;
+			}
+
+			int coef = phase * taps;
+			int first = i0 - halfTaps + 1;
+			float left = 0;
+			float right = 0;
+
+			if (first >= 0 && first + taps <= inFrames)
+			{
+				// fast path, kernel lies entirely within the data
+				int idx = first * 2;
+				for (int k = 0; k < taps; k++)
+				{
+					float c = coefficients[coef + k];
+					left += stereo[idx++] * c;
+					right += stereo[idx++] * c;
+				}
+			}
+			else
+			{
+				for (int k = 0; k < taps; k++)
+				{
+					int frame = first + k;
+					if (frame < 0 || frame >= inFrames) continue;
+					float c = coefficients[coef + k];
+					left += stereo[frame * 2] * c;
+					right += stereo[frame * 2 + 1] * c;
+				}
+			}
+
+			out[n * 2] = left;
+			out[n * 2 + 1] = right;
+		}
+		return out;
+	}
+
+	private static double sinc(double x)
+	{
+		if (x == 0) return 1;
+		double px = Math.PI * x;
+		return Math.sin(px) / px;
+	}
+
+	// Zeroth order modified Bessel function of the first kind.
+	private static double besselI0(double x)
+	{
+		double sum = 1;
+		double term = 1;
+		double halfX = x / 2;
+		for (int k = 1; k < 50; k++)
+		{
+			term *= (halfX / k) * (halfX / k);
+			sum += term;
+			if (term < sum * 1e-12) break;
+		}
+		return sum;
+	}
+
+	private static int gcd(int a, int b)
+	{
+		while (b != 0)
+		{
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+}
@@ -0,0 +1,259 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import com.google.inject.ImplementedBy;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Guards the calls to {@link MusicReplacerPlugin#MUSIC_REPLACER_API}: a call failing in a way that might pass (a
+ * timeout, a 5xx, a dropped connection) is retried after a jittered exponential backoff. Once
+ * {@link #FAILURES_TO_OPEN} calls in a row failed even so, the API is considered down and calls fail right away,
+ * until a single call is let through every so often to see whether it's back.
+ */
+@Slf4j
+@Singleton
+class ApiCircuitBreaker
+{
+	static final int MAX_ATTEMPTS = 4;
+	private static final long BASE_BACKOFF_MILLIS = 500;
+	private static final long MAX_BACKOFF_MILLIS = 8_000;
+
+	static final int FAILURES_TO_OPEN = 3;
+	/**
+	 * How long calls fail right away after the API went down, doubles each time it's still down (up to {@link #MAX_OPEN})
+	 */
+	private static final Duration OPEN = Duration.ofSeconds(30);
+	private static final Duration MAX_OPEN = Duration.ofMinutes(5);
+
+	interface Call<T>
+	{
+		T call() throws IOException;
+	}
+
+	enum State
+	{
+		/**
+		 * Calls go through
+		 */
+		CLOSED,
+		/**
+		 * Calls fail right away
+		 */
+		OPEN,
+		/**
+		 * A call is let through (or will be, by the next call) to see whether the API is back
+		 */
+		HALF_OPEN
+	}
+
+	/**
+	 * Time and chance as the breaker sees them, so a test doesn't have to wait out (or guess) the backoff.
+	 */
+	@ImplementedBy(SystemClock.class)
+	interface Clock
+	{
+		long nanoTime();
+
+		void sleep(long millis) throws InterruptedException;
+
+		/**
+		 * @return a random number from {@code from} up to and including {@code to}
+		 */
+		long random(long from, long to);
+	}
+
+	static class SystemClock implements Clock
+	{
+		@Override
+		public long nanoTime()
+		{
+			return System.nanoTime();
+		}
+
+		@Override
+		public void sleep(long millis) throws InterruptedException
+		{
+			Thread.sleep(millis);
+		}
+
+		@Override
+		public long random(long from, long to)
+		{
+			return ThreadLocalRandom.current().nextLong(from, to + 1);
+		}
+	}
+
+	@Inject
+	private MusicReplacerPlugin musicReplacer;
+	@Inject
+	private Clock clock;
+
+	private int consecutiveFailures;
+	private boolean open;
+	private long openUntilNanos;
+	private Duration openFor = OPEN;
+	private boolean probing;
+
+	/**
+	 * @param what what {@code call} does, for the logs
+	 * @return what {@code call} returned once it succeeded
+	 * @throws OpenException right away if the API is considered down
+	 * @throws IOException of the last attempt if {@code call} kept failing (or failed in a way retrying won't fix)
+	 */
+	public <T> T call(String what, Call<T> call) throws IOException
+	{
+		for (int attempt = 1; ; attempt++)
+		{
+			boolean probe = admit(what);
+			try
+			{
+				T result = call.call();
+				succeeded(probe);
+				return result;
+			}
+			catch (Rejected e)
+			{
+				// It did respond, so it's up
+				succeeded(probe);
+				throw e;
+			}
+			catch (IOException e)
+			{
+				if (Thread.currentThread().isInterrupted())
+				{
+					// Stopped on purpose, that says nothing about the API
+					abandoned(probe);
+					throw e;
+				}
+				if (probe || attempt >= MAX_ATTEMPTS)
+				{
+					failed(probe);
+					throw e;
+				}
+				log.debug(what + " failed (attempt " + attempt + " of " + MAX_ATTEMPTS + "), retrying", e);
+			}
+			catch (RuntimeException e)
+			{
+				abandoned(probe);
+				throw e;
+			}
+			backoff(attempt);
+		}
+	}
+
+	/**
+	 * @return whether the call is let through to see if the API is back
+	 */
+	private synchronized boolean admit(String what) throws OpenException
+	{
+		if (!open) return false;
+		if (probing || clock.nanoTime() < openUntilNanos)
+		{
+			throw new OpenException(what + " skipped, the music replacer API isn't responding");
+		}
+		probing = true;
+		return true;
+	}
+
+	private synchronized void succeeded(boolean probe)
+	{
+		if (probe) probing = false;
+		consecutiveFailures = 0;
+		if (open)
+		{
+			open = false;
+			openFor = OPEN;
+			log.info("The music replacer API responds again");
+		}
+	}
+
+	private synchronized void failed(boolean probe)
+	{
+		if (probe)
+		{
+			probing = false;
+			openFor = openFor.multipliedBy(2).compareTo(MAX_OPEN) < 0 ? openFor.multipliedBy(2) : MAX_OPEN;
+			openUntilNanos = clock.nanoTime() + openFor.toNanos();
+			log.info("The music replacer API still isn't responding, trying again in " + openFor.getSeconds() + "s");
+		}
+		// Calls that were already going when it opened don't count
+		else if (!open && ++consecutiveFailures >= FAILURES_TO_OPEN)
+		{
+			open = true;
+			openUntilNanos = clock.nanoTime() + openFor.toNanos();
+			log.warn("The music replacer API failed " + consecutiveFailures + " calls in a row, not calling it for " + openFor.getSeconds() + "s");
+			musicReplacer.chatMsg("The music replacer API isn't responding, downloads and searches will fail until it's back.");
+		}
+	}
+
+	private synchronized void abandoned(boolean probe)
+	{
+		if (probe) probing = false;
+	}
+
+	synchronized State state()
+	{
+		if (!open) return State.CLOSED;
+		return probing || clock.nanoTime() >= openUntilNanos ? State.HALF_OPEN : State.OPEN;
+	}
+
+	/**
+	 * Waits between half and all of {@code 2^(attempt - 1) * BASE_BACKOFF_MILLIS}, so retries of calls that failed
+	 * together (e.g. a whole preset) don't all hit the API at the same moment again.
+	 */
+	private void backoff(int attempt) throws InterruptedIOException
+	{
+		long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+		try
+		{
+			clock.sleep(clock.random(cap / 2, cap));
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while backing off");
+		}
+	}
+
+	/**
+	 * @return the exception for an unsuccessful HTTP {@code code}, a {@link Rejected} unless it might pass on retry
+	 */
+	static IOException statusError(int code, String message)
+	{
+		boolean transientStatus = code >= 500 || code == 408 /* Request Timeout */ || code == 429 /* Too Many Requests */;
+		return transientStatus ? new IOException(message) : new Rejected(message);
+	}
+
+	/**
+	 * The API responded, but with something retrying won't change (e.g. a 404 or an error page instead of audio).
+	 */
+	static class Rejected extends IOException
+	{
+		Rejected(String message)
+		{
+			super(message);
+		}
+
+		Rejected(String message, Throwable cause)
+		{
+			super(message, cause);
+		}
+	}
+
+	/**
+	 * The call wasn't made because the API is considered down.
+	 */
+	static class OpenException extends IOException
+	{
+		OpenException(String message)
+		{
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import com.google.common.io.BaseEncoding;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Stores override media by what it is instead of by track, so tracks using the same download or the same local file
+ * share one blob. Downloads are named after their download id, local files after the hash of their content.
+ * <p>
+ * Which overrides refer to a blob is kept in the overrides themselves ({@link TrackOverride#getBlob()}), so
+ * {@link Tracks} decides when a blob isn't referenced anymore.
+ */
+@Slf4j
+@Singleton
+class BlobStore
+{
+	private static final String REMOTE_PREFIX = "yt-";
+	private static final String PART_SUFFIX = ".part";
+
+	static final File BLOBS_DIR = new File(Tracks.MUSIC_OVERRIDES_DIR, "blobs");
+	{ // Not static initializer, if we fail we only want to fail loading our plugin
+		if (!BLOBS_DIR.exists() && !BLOBS_DIR.mkdirs())
+		{
+			throw new IllegalStateException("Failed to create " + BLOBS_DIR);
+		}
+	}
+
+	@Inject
+	private DownloadPool downloads;
+
+	private final Map<String, DownloadPool.Download<?>> inFlight = new HashMap<>();
+
+	static String remoteBlob(String downloadId, String ext)
+	{
+		return REMOTE_PREFIX + downloadId + ext;
+	}
+
+	/**
+	 * @return whether {@code blob} is a download, i.e. can be gotten again
+	 */
+	static boolean isRemote(String blob)
+	{
+		return blob.startsWith(REMOTE_PREFIX);
+	}
+
+	static Path pathOf(String blob)
+	{
+		return BLOBS_DIR.toPath().resolve(blob);
+	}
+
+	/**
+	 * Transfers {@code blob} with the download made by {@code start}, unless a transfer of it is already in flight,
+	 * then that one is {@link DownloadPool#share shared} (so cancelling it only stops it once every owner did).
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> DownloadPool.Download<T> transferOnce(String blob, Supplier<DownloadPool.Download<T>> start)
+	{
+		DownloadPool.Download<T> download;
+		synchronized (inFlight)
+		{
+			download = (DownloadPool.Download<T>) inFlight.get(blob);
+			// Unless all its owners cancelled it, then it's as good as over
+			if (download != null && downloads.share(download)) return download;
+
+			download = start.get();
+			inFlight.put(blob, download);
+		}
+		DownloadPool.Download<T> done = download;
+		download.result().whenComplete((result, e) ->
+		{
+			synchronized (inFlight)
+			{
+				inFlight.remove(blob, done);
+			}
+		});
+		return download;
+	}
+
+	/**
+	 * Deletes what was downloaded so far of {@code blob} (e.g. its bulk got cancelled), unless it's being transferred.
+	 */
+	public void discardPart(String blob)
+	{
+		Path partPath = partPathOf(pathOf(blob));
+		synchronized (inFlight)
+		{
+			if (inFlight.containsKey(blob)) return;
+			try
+			{
+				Files.deleteIfExists(partPath);
+			}
+			catch (IOException e)
+			{
+				log.warn("Couldn't delete " + partPath, e);
+			}
+		}
+	}
+
+	/**
+	 * Copies {@code source} into the store (if its content isn't in there yet).
+	 *
+	 * @return the path of the blob
+	 */
+	public Path importLocal(Path source, String ext) throws IOException
+	{
+		Path partPath = Files.createTempFile(BLOBS_DIR.toPath(), "import", PART_SUFFIX);
+		try
+		{
+			MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+			try (InputStream is = new DigestInputStream(Files.newInputStream(source), sha256))
+			{
+				Files.copy(is, partPath, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			Path blobPath = pathOf(BaseEncoding.base16().lowerCase().encode(sha256.digest()) + ext);
+			if (!Files.exists(blobPath))
+			{
+				publish(partPath, blobPath);
+			}
+			return blobPath;
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-256 is always supported", e);
+		}
+		finally
+		{
+			Files.deleteIfExists(partPath);
+		}
+	}
+
+	/**
+	 * Marks {@code blob} as used just now, which is what {@link #evictToFit} goes by.
+	 */
+	public void touch(String blob)
+	{
+		try
+		{
+			Files.setLastModifiedTime(pathOf(blob), FileTime.fromMillis(System.currentTimeMillis()));
+		}
+		catch (NoSuchFileException e)
+		{
+			// Not there (yet), it's new once it is
+		}
+		catch (IOException e)
+		{
+			log.warn("Couldn't mark " + blob + " as used", e);
+		}
+	}
+
+	/**
+	 * Deletes the least recently used downloads until everything in the store (local blobs and parts included) fits
+	 * in {@code budgetBytes}, or there are no downloads left to delete. Local blobs are never deleted, those can't be
+	 * gotten again.
+	 *
+	 * @param keep blobs not to evict either, e.g. one that was just transferred
+	 * @return the evicted blobs
+	 */
+	public List<String> evictToFit(long budgetBytes, Set<String> keep) throws IOException
+	{
+		@Value class Stored
+		{
+			Path path;
+			long size;
+			FileTime used;
+		}
+
+		long total = 0;
+		List<Stored> downloads = new ArrayList<>();
+		try (Stream<Path> ls = Files.list(BLOBS_DIR.toPath()))
+		{
+			for (Path path : (Iterable<Path>) ls::iterator)
+			{
+				BasicFileAttributes attributes;
+				try
+				{
+					attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				}
+				catch (NoSuchFileException e)
+				{
+					continue; // Released or published meanwhile
+				}
+				total += attributes.size();
+
+				String name = path.getFileName().toString();
+				if (isRemote(name) && !name.endsWith(PART_SUFFIX) && !keep.contains(name))
+				{
+					downloads.add(new Stored(path, attributes.size(), attributes.lastModifiedTime()));
+				}
+			}
+		}
+
+		downloads.sort(Comparator.comparing(Stored::getUsed));
+		List<String> evicted = new ArrayList<>();
+		for (Stored download : downloads)
+		{
+			if (total <= budgetBytes) break;
+
+			Files.deleteIfExists(download.getPath());
+			total -= download.getSize();
+			evicted.add(download.getPath().getFileName().toString());
+		}
+		return evicted;
+	}
+
+	static Path partPathOf(Path targetPath)
+	{
+		return targetPath.resolveSibling(targetPath.getFileName() + PART_SUFFIX);
+	}
+
+	/**
+	 * Moves a finished {@code partPath} into {@code targetPath} so the file there is either the old or the new one,
+	 * never something half written.
+	 */
+	static void publish(Path partPath, Path targetPath) throws IOException
+	{
+		try
+		{
+			Files.move(partPath, targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(partPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
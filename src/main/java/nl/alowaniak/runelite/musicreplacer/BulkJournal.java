@@ -0,0 +1,326 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.reflect.TypeToken;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static net.runelite.http.api.RuneLiteAPI.GSON;
+
+/**
+ * Keeps track of bulk overrides (presets and directories) on disk, so the ones cut short by closing RL can be resumed.
+ * <p>
+ * Every track of a job is {@link State#PENDING} until it's done or failed, a job is dropped once nothing is pending.
+ * Other threads shouldn't read the tracks of a job, but its {@link Job#getCounts() counts}.
+ * <p>
+ * Marking a track only saves a little later, together with the tracks marked meanwhile, so a crash can forget the last
+ * few (which then get redone). Starting, finishing, putting back and dropping a job save right away.
+ */
+@Slf4j
+@Singleton
+class BulkJournal
+{
+	private static final Path JOURNAL_FILE = Tracks.MUSIC_OVERRIDES_DIR.toPath().resolve("bulk-jobs.json");
+	private static final TypeToken<List<Job>> JOBS_TYPE = new TypeToken<List<Job>>() {};
+	private static final long SAVE_DELAY_MILLIS = 2000;
+
+	enum State
+	{
+		PENDING, DONE, FAILED
+	}
+
+	@Data
+	@NoArgsConstructor
+	static class Job
+	{
+		String id = UUID.randomUUID().toString();
+		/**
+		 * Preset name or directory path
+		 */
+		String name;
+		String credits;
+		boolean directory;
+		/**
+		 * Tracks left out because they were already overridden
+		 */
+		int skipped;
+		/**
+		 * In order of the bulk, by track name
+		 */
+		Map<String, Track> tracks = new LinkedHashMap<>();
+		/**
+		 * Republished by the journal (under its lock) whenever it changes the job, for threads that only show it
+		 */
+		transient volatile Counts counts;
+
+		Job(String name, String credits, boolean directory)
+		{
+			this.name = name;
+			this.credits = credits;
+			this.directory = directory;
+		}
+
+		Map<String, Track> pending()
+		{
+			return tracks.entrySet().stream()
+					.filter(e -> e.getValue().getState() == State.PENDING)
+					.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+		}
+
+		long failed()
+		{
+			return tracks.values().stream().filter(e -> e.getState() == State.FAILED).count();
+		}
+
+		private void publishCounts()
+		{
+			counts = new Counts(tracks.size(), pending().size(), (int) failed(), skipped);
+		}
+	}
+
+	/**
+	 * A snapshot of how far a {@link Job} is.
+	 */
+	@Value
+	static class Counts
+	{
+		int tracks;
+		int pending;
+		int failed;
+		int skipped;
+	}
+
+	@Data
+	@NoArgsConstructor
+	static class Track
+	{
+		/**
+		 * What to download for a preset track
+		 */
+		SearchResult hit;
+		/**
+		 * The file to copy for a directory track
+		 */
+		String path;
+		State state = State.PENDING;
+
+		static Track remote(SearchResult hit)
+		{
+			Track track = new Track();
+			track.hit = hit;
+			return track;
+		}
+
+		static Track local(Path path)
+		{
+			Track track = new Track();
+			track.path = path.toString();
+			return track;
+		}
+	}
+
+	private List<Job> jobs;
+	/**
+	 * Jobs being worked on by this session, these shouldn't be resumed (again)
+	 */
+	private final Set<String> active = new HashSet<>();
+	/**
+	 * Whether {@link #jobs} changed since they were last saved
+	 */
+	private boolean dirty;
+	private boolean saveScheduled;
+	/**
+	 * Held while writing the file, so a save of older jobs can't overwrite a newer one
+	 */
+	private final Object fileLock = new Object();
+	private final ScheduledThreadPoolExecutor saver = new ScheduledThreadPoolExecutor(1,
+			new ThreadFactoryBuilder().setNameFormat("music-replacer-journal").setDaemon(true).build());
+
+	BulkJournal()
+	{
+		saver.setKeepAliveTime(SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		saver.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Records a new job, which is considered active (not to be resumed) for the rest of this session.
+	 * A job without anything pending isn't recorded, it'd never be marked finished.
+	 */
+	public void start(Job job)
+	{
+		synchronized (this)
+		{
+			job.publishCounts();
+			if (job.pending().isEmpty()) return;
+
+			jobs().add(job);
+			active.add(job.getId());
+			dirty = true;
+		}
+		save();
+	}
+
+	/**
+	 * @return the unfinished jobs of an earlier session, which are now considered active
+	 */
+	public synchronized List<Job> takeUnfinished()
+	{
+		List<Job> unfinished = jobs().stream()
+				.filter(e -> !active.contains(e.getId()))
+				.collect(Collectors.toList());
+		unfinished.forEach(e -> {
+			active.add(e.getId());
+			e.publishCounts();
+		});
+		return unfinished;
+	}
+
+	/**
+	 * @return whether that was the last pending track of {@code job}
+	 */
+	public boolean mark(Job job, String trackName, boolean success)
+	{
+		boolean finished;
+		synchronized (this)
+		{
+			job.getTracks().get(trackName).setState(success ? State.DONE : State.FAILED);
+			job.publishCounts();
+			finished = job.pending().isEmpty();
+			if (finished)
+			{
+				jobs().remove(job);
+				active.remove(job.getId());
+			}
+			dirty = true;
+			if (!finished && !saveScheduled)
+			{
+				saveScheduled = true;
+				saver.schedule(this::save, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		}
+		if (finished) save();
+		return finished;
+	}
+
+	/**
+	 * No longer works on {@code job} this session (e.g. the plugin got turned off), while keeping what's pending of it
+	 * for the next {@link #takeUnfinished}.
+	 */
+	public void putBack(Job job)
+	{
+		synchronized (this)
+		{
+			active.remove(job.getId());
+		}
+		save();
+	}
+
+	/**
+	 * Forgets {@code job} (e.g. it got cancelled), whatever is still pending of it won't be resumed.
+	 */
+	public void drop(Job job)
+	{
+		synchronized (this)
+		{
+			active.remove(job.getId());
+			if (jobs().remove(job)) dirty = true;
+		}
+		save();
+	}
+
+	private List<Job> jobs()
+	{
+		if (jobs == null)
+		{
+			jobs = new ArrayList<>();
+			if (Files.exists(JOURNAL_FILE))
+			{
+				try (Reader reader = Files.newBufferedReader(JOURNAL_FILE, StandardCharsets.UTF_8))
+				{
+					List<Job> read = GSON.fromJson(reader, JOBS_TYPE.getType());
+					if (read != null) jobs.addAll(read);
+				}
+				catch (IOException | RuntimeException e)
+				{
+					log.warn("Couldn't read " + JOURNAL_FILE + ", unfinished bulk overrides won't be resumed.", e);
+				}
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * Writes the jobs if they changed, outside the journal lock so marking tracks doesn't wait on the disk.
+	 */
+	private void save()
+	{
+		synchronized (fileLock)
+		{
+			String json;
+			synchronized (this)
+			{
+				saveScheduled = false;
+				if (!dirty) return;
+				dirty = false;
+				json = jobs.isEmpty() ? null : GSON.toJson(jobs, JOBS_TYPE.getType());
+			}
+			write(json);
+		}
+	}
+
+	/**
+	 * @param json the jobs, {@code null} if there are none
+	 */
+	private static void write(String json)
+	{
+		try
+		{
+			if (json == null)
+			{
+				Files.deleteIfExists(JOURNAL_FILE);
+				return;
+			}
+
+			// Write aside and move over so a crash mid-write can't lose the whole journal
+			Path tmp = JOURNAL_FILE.resolveSibling(JOURNAL_FILE.getFileName() + ".tmp");
+			try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))
+			{
+				writer.write(json);
+			}
+			try
+			{
+				Files.move(tmp, JOURNAL_FILE, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(tmp, JOURNAL_FILE, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch (IOException e)
+		{
+			log.warn("Couldn't write " + JOURNAL_FILE, e);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import lombok.Value;
+
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of the running bulk overrides taken together, shown by {@link BulkProgressOverlay} so bulk overrides don't
+ * need a chat message per track.
+ */
+@Singleton
+class BulkProgress
+{
+	/**
+	 * How much the latest measurement weighs in the smoothed download speed
+	 */
+	private static final double RATE_SMOOTHING = .3;
+
+	@Value
+	static class Status
+	{
+		/**
+		 * The bulk(s) being run, preset names or directories
+		 */
+		String title;
+		int done;
+		int failed;
+		int skipped;
+		int total;
+		double bytesPerSecond;
+		/**
+		 * {@code null} until there's something to base it on
+		 */
+		Duration eta;
+	}
+
+	private static class Running
+	{
+		final BulkJournal.Job job;
+		final long startedAt = System.nanoTime();
+		/**
+		 * Tracks that were already done when started (i.e. resumed), those don't say anything about our pace
+		 */
+		final int doneBefore;
+		boolean paused;
+
+		Running(BulkJournal.Job job)
+		{
+			this.job = job;
+			BulkJournal.Counts counts = job.getCounts();
+			this.doneBefore = counts.getTracks() - counts.getPending();
+		}
+	}
+
+	private final Map<String, Running> running = new LinkedHashMap<>();
+	private final AtomicLong bytes = new AtomicLong();
+
+	private long measuredBytes;
+	private long measuredAt = System.nanoTime();
+	private double bytesPerSecond;
+
+	public synchronized void started(BulkJournal.Job job)
+	{
+		running.put(job.getId(), new Running(job));
+	}
+
+	public synchronized void paused(BulkJournal.Job job, boolean paused)
+	{
+		Running run = running.get(job.getId());
+		if (run != null) run.paused = paused;
+	}
+
+	public synchronized void finished(BulkJournal.Job job)
+	{
+		running.remove(job.getId());
+	}
+
+	/**
+	 * Called by downloads as bytes come in (any download, it's about our total download speed).
+	 */
+	public void transferred(long count)
+	{
+		bytes.addAndGet(count);
+	}
+
+	/**
+	 * @return the combined status of all running bulks, or {@code null} if none are running
+	 */
+	public synchronized Status status()
+	{
+		long now = System.nanoTime();
+		long total = bytes.get();
+		if (now > measuredAt)
+		{
+			double rate = (total - measuredBytes) * 1e9 / (now - measuredAt);
+			bytesPerSecond = bytesPerSecond == 0 ? rate : bytesPerSecond + RATE_SMOOTHING * (rate - bytesPerSecond);
+			measuredBytes = total;
+			measuredAt = now;
+		}
+		if (running.isEmpty()) return null;
+
+		StringBuilder title = new StringBuilder();
+		int done = 0, failed = 0, skipped = 0, tracks = 0;
+		double etaNanos = 0;
+		for (Running run : running.values())
+		{
+			// The journal changes the job on other threads, the counts it published are safe to read
+			BulkJournal.Counts counts = run.job.getCounts();
+			int jobTracks = counts.getTracks();
+			int jobPending = counts.getPending();
+			int doneNow = jobTracks - jobPending - run.doneBefore;
+			if (doneNow > 0)
+			{
+				// Jobs run side by side, so the slowest one decides when everything is done
+				etaNanos = Math.max(etaNanos, (double) (now - run.startedAt) / doneNow * jobPending);
+			}
+
+			if (title.length() > 0) title.append(", ");
+			title.append(run.job.getName());
+			if (run.paused) title.append(" (paused)");
+			failed += counts.getFailed();
+			done += jobTracks - jobPending - counts.getFailed();
+			skipped += counts.getSkipped();
+			tracks += jobTracks + counts.getSkipped();
+		}
+		return new Status(title.toString(), done, failed, skipped, tracks, bytesPerSecond,
+				etaNanos > 0 ? Duration.ofNanos((long) etaNanos) : null);
+	}
+}
@@ -0,0 +1,74 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import net.runelite.client.ui.overlay.OverlayPanel;
+import net.runelite.client.ui.overlay.OverlayPosition;
+import net.runelite.client.ui.overlay.components.LineComponent;
+import net.runelite.client.ui.overlay.components.TitleComponent;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.time.Duration;
+
+/**
+ * Shows the {@link BulkProgress} while a bulk override is running.
+ */
+@Singleton
+class BulkProgressOverlay extends OverlayPanel
+{
+	/**
+	 * Rendering happens every frame, the status only needs to change about every second
+	 */
+	private static final long REFRESH_MILLIS = 1000;
+
+	@Inject
+	private BulkProgress progress;
+
+	private BulkProgress.Status status;
+	private long refreshedAt;
+
+	BulkProgressOverlay()
+	{
+		setPosition(OverlayPosition.TOP_LEFT);
+	}
+
+	@Override
+	public Dimension render(Graphics2D graphics)
+	{
+		long now = System.currentTimeMillis();
+		if (now - refreshedAt >= REFRESH_MILLIS)
+		{
+			status = progress.status();
+			refreshedAt = now;
+		}
+		if (status == null) return null;
+
+		panelComponent.getChildren().add(TitleComponent.builder().text(status.getTitle()).build());
+		panelComponent.getChildren().add(LineComponent.builder()
+				.left("Overridden")
+				.right(status.getDone() + "/" + status.getTotal())
+				.build());
+		if (status.getFailed() > 0)
+		{
+			panelComponent.getChildren().add(LineComponent.builder().left("Failed").right(String.valueOf(status.getFailed())).build());
+		}
+		if (status.getSkipped() > 0)
+		{
+			panelComponent.getChildren().add(LineComponent.builder().left("Skipped").right(String.valueOf(status.getSkipped())).build());
+		}
+		panelComponent.getChildren().add(LineComponent.builder()
+				.left(String.format("%.1f MB/s", status.getBytesPerSecond() / (1024 * 1024)))
+				.right(status.getEta() == null ? "" : "ETA " + formatEta(status.getEta()))
+				.build());
+		return super.render(graphics);
+	}
+
+	private static String formatEta(Duration eta)
+	{
+		long seconds = eta.getSeconds();
+		return seconds >= 3600
+				? String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60)
+				: String.format("%d:%02d", seconds / 60, seconds % 60);
+	}
+}
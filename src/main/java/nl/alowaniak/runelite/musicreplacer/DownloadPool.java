@@ -0,0 +1,321 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs transfers in parallel, bounded by {@link MusicReplacerConfig#downloadConcurrency()} in total and by
+ * {@link MusicReplacerConfig#downloadsPerHost()} per host (so we don't hammer one server with a whole preset).
+ * <p>
+ * Transfers that can't run yet wait in a queue ordered by {@link Priority}, which is re-evaluated whenever the
+ * {@link #nowPlaying(String) now playing} track changes. Within the same priority it's first come first served.
+ * A queued transfer can be {@link #hold held} back, and any transfer can be {@link #cancel cancelled}. A transfer can
+ * be {@link #share shared} by several owners, then it's only held back while all of them hold it and only cancelled
+ * once all of them cancelled it.
+ */
+@Slf4j
+@Singleton
+class DownloadPool
+{
+	/**
+	 * How many of the previously played tracks still get {@link Priority#RECENT}
+	 */
+	private static final int RECENT_TRACKS = 10;
+
+	enum Priority
+	{
+		/**
+		 * Someone is actively waiting on it (e.g. a single track override)
+		 */
+		INTERACTIVE,
+		/**
+		 * For the track that's playing in game
+		 */
+		NOW_PLAYING,
+		/**
+		 * For a track that played recently (likely to come back in the area we're in)
+		 */
+		RECENT,
+		BULK
+	}
+
+	/**
+	 * Started when needed, so transfers can run again after a {@link #shutDown}
+	 */
+	private ExecutorService workers;
+
+	@Inject
+	private MusicReplacerConfig config;
+
+	private final PriorityQueue<Download<?>> pending = new PriorityQueue<>(
+			Comparator.<Download<?>, Priority>comparing(this::priorityOf).thenComparingLong(e -> e.sequence));
+	private final Map<String, Integer> runningPerHost = new HashMap<>();
+	private int running;
+	private long sequence;
+
+	private String nowPlaying;
+	private final Deque<String> recent = new ArrayDeque<>();
+
+	/**
+	 * Queue a transfer someone is actively waiting on, it goes before all others.
+	 */
+	public <T> Download<T> submitInteractive(String host, Callable<T> transfer)
+	{
+		return enqueue(host, null, Priority.INTERACTIVE, transfer);
+	}
+
+	/**
+	 * Queue a transfer for {@code track} as part of a bulk, its priority depends on when {@code track} was played.
+	 */
+	public <T> Download<T> submit(String host, String track, Callable<T> transfer)
+	{
+		return enqueue(host, track, Priority.BULK, transfer);
+	}
+
+	private <T> Download<T> enqueue(String host, String track, Priority priority, Callable<T> transfer)
+	{
+		Download<T> download;
+		synchronized (this)
+		{
+			download = new Download<>(host, track, priority, sequence++, transfer);
+			pending.add(download);
+		}
+		dispatch();
+		return download;
+	}
+
+	/**
+	 * Let the pending transfers for {@code track} go first, and those for the one playing before it soon after.
+	 */
+	public synchronized void nowPlaying(String track)
+	{
+		if (Objects.equals(track, nowPlaying)) return;
+
+		if (nowPlaying != null)
+		{
+			recent.remove(nowPlaying);
+			recent.addFirst(nowPlaying);
+			if (recent.size() > RECENT_TRACKS) recent.removeLast();
+		}
+		recent.remove(track);
+		nowPlaying = track;
+
+		// The ordering changed so the heap has to be rebuilt
+		List<Download<?>> reordered = new ArrayList<>(pending);
+		pending.clear();
+		pending.addAll(reordered);
+	}
+
+	/**
+	 * One more owner uses {@code download}, which counts for {@link #hold} and {@link #cancel} like its first one.
+	 *
+	 * @return false if it's cancelled already, so it can't be shared anymore
+	 */
+	public synchronized boolean share(Download<?> download)
+	{
+		if (download.cancelled) return false;
+		download.owners++;
+		return true;
+	}
+
+	/**
+	 * Keeps {@code download} from starting until it's {@link #release released}, it doesn't affect one that already started.
+	 * If it's shared, only once each owner holds it.
+	 */
+	public synchronized void hold(Download<?> download)
+	{
+		download.held++;
+	}
+
+	public void release(Download<?> download)
+	{
+		synchronized (this)
+		{
+			if (download.held > 0) download.held--;
+		}
+		dispatch();
+	}
+
+	/**
+	 * Drops {@code download} if it didn't start yet, its result then fails with a {@link CancellationException}.
+	 * Otherwise interrupts the thread running its transfer, which is expected to stop (and clean up) soon after.
+	 * If it's shared it goes on as long as one of its owners didn't cancel it.
+	 */
+	public void cancel(Download<?> download)
+	{
+		synchronized (this)
+		{
+			if (download.cancelled || --download.owners > 0) return;
+			download.cancelled = true;
+			if (!pending.remove(download))
+			{
+				if (download.runner != null) download.runner.interrupt();
+				return;
+			}
+		}
+		download.result.completeExceptionally(new CancellationException("Cancelled before it started"));
+	}
+
+	/**
+	 * Cancels all transfers, queued or running (whoever owns them), and stops the workers.
+	 */
+	public void shutDown()
+	{
+		List<Download<?>> dropped;
+		ExecutorService stopping;
+		synchronized (this)
+		{
+			dropped = new ArrayList<>(pending);
+			pending.clear();
+			dropped.forEach(e -> e.cancelled = true);
+			stopping = workers;
+			workers = null;
+		}
+		dropped.forEach(e -> e.result.completeExceptionally(new CancellationException("Shut down before it started")));
+		// Interrupts the running transfers, like cancelling them
+		if (stopping != null) stopping.shutdownNow();
+	}
+
+	private Priority priorityOf(Download<?> download)
+	{
+		if (download.priority != Priority.BULK || download.track == null) return download.priority;
+		if (download.track.equals(nowPlaying)) return Priority.NOW_PLAYING;
+		if (recent.contains(download.track)) return Priority.RECENT;
+		return Priority.BULK;
+	}
+
+	/**
+	 * Start the most important pending downloads that fit within the limits, skipping the held ones and the ones whose
+	 * host is saturated.
+	 */
+	private synchronized void dispatch()
+	{
+		int maxRunning = Math.max(1, config.downloadConcurrency());
+		int maxPerHost = Math.max(1, config.downloadsPerHost());
+		List<Download<?>> skipped = new ArrayList<>();
+		Download<?> download;
+		while (running < maxRunning && (download = pending.poll()) != null)
+		{
+			if (download.isHeld() || runningPerHost.getOrDefault(download.host, 0) >= maxPerHost)
+			{
+				skipped.add(download);
+				continue;
+			}
+
+			running++;
+			runningPerHost.merge(download.host, 1, Integer::sum);
+			Download<?> starting = download;
+			if (workers == null)
+			{
+				workers = Executors.newCachedThreadPool(
+						new ThreadFactoryBuilder().setNameFormat("music-replacer-download-%d").setDaemon(true).build());
+			}
+			workers.execute(() -> run(starting));
+			download.started.complete(null);
+		}
+		pending.addAll(skipped);
+	}
+
+	private void run(Download<?> download)
+	{
+		boolean cancelled;
+		synchronized (this)
+		{
+			download.runner = Thread.currentThread();
+			cancelled = download.cancelled;
+		}
+		try
+		{
+			if (cancelled) download.result.completeExceptionally(new CancellationException("Cancelled before it started"));
+			else download.run();
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				download.runner = null;
+				running--;
+				runningPerHost.computeIfPresent(download.host, (host, count) -> count > 1 ? count - 1 : null);
+			}
+			// A cancel that came in as the transfer finished shouldn't carry over to the next one on this thread
+			Thread.interrupted();
+			dispatch();
+		}
+	}
+
+	static class Download<T>
+	{
+		private final String host;
+		private final String track;
+		private final Priority priority;
+		private final long sequence;
+		private final Callable<T> transfer;
+		private final CompletableFuture<Void> started = new CompletableFuture<>();
+		private final CompletableFuture<T> result = new CompletableFuture<>();
+		// Guarded by the pool
+		private int owners = 1;
+		/**
+		 * By how many of its owners
+		 */
+		private int held;
+		private boolean cancelled;
+		private Thread runner;
+
+		private Download(String host, String track, Priority priority, long sequence, Callable<T> transfer)
+		{
+			this.host = host;
+			this.track = track;
+			this.priority = priority;
+			this.sequence = sequence;
+			this.transfer = transfer;
+		}
+
+		/**
+		 * Completes when the transfer got picked from the queue, note dependents run while the pool is locked.
+		 */
+		public CompletableFuture<Void> started()
+		{
+			return started;
+		}
+
+		public CompletableFuture<T> result()
+		{
+			return result;
+		}
+
+		private boolean isHeld()
+		{
+			return held > 0 && held >= owners;
+		}
+
+		private void run()
+		{
+			try
+			{
+				result.complete(transfer.call());
+			}
+			catch (Exception e)
+			{
+				log.warn("Transfer " + (track == null ? "" : "of " + track + " ") + "from " + host + " failed", e);
+				result.completeExceptionally(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.spi.AbstractInterruptibleChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Downloads files with the injected {@link OkHttpClient}, so all downloads (of a preset) reuse its pooled connections.
+ */
+@Slf4j
+@Singleton
+class Downloader
+{
+	/**
+	 * Also how often {@code written} hears about progress, small enough to start playing a download early
+	 */
+	private static final long TRANSFER_CHUNK = 64 * 1024;
+
+	@Inject
+	private OkHttpClient http;
+	@Inject
+	private BulkProgress progress;
+
+	/**
+	 * Shares the connection pool with {@link #http}, but is more lenient on reads since the API might have to fetch the
+	 * audio itself before it starts responding.
+	 */
+	@Getter(value = AccessLevel.PRIVATE, lazy = true)
+	private final OkHttpClient downloadHttp = http.newBuilder().readTimeout(1, TimeUnit.MINUTES).build();
+
+	/**
+	 * Downloads {@code url} into {@code partPath}, continuing where an earlier attempt left off if the server supports
+	 * range requests. Otherwise (or if the part doesn't line up with what the server says) starts over.
+	 * Interrupting the thread aborts the download (with a {@link java.nio.channels.ClosedByInterruptException}).
+	 *
+	 * @param written told up to where {@code partPath} is written as the download goes
+	 */
+	public void download(String url, Path partPath, LongConsumer written) throws IOException
+	{
+		long have = Files.exists(partPath) ? Files.size(partPath) : 0;
+		Request.Builder request = new Request.Builder().url(url);
+		if (have > 0) request.header("Range", "bytes=" + have + "-");
+
+		boolean startOver = false;
+		try (InterruptibleCall call = new InterruptibleCall(getDownloadHttp().newCall(request.build()));
+			 Response res = call.execute())
+		{
+			long position = 0;
+			if (res.code() == 206) // Partial Content
+			{
+				String range = res.header("Content-Range");
+				if (range == null || !range.startsWith("bytes " + have + "-"))
+				{
+					throw new IOException("Unexpected Content-Range " + range + " resuming from " + have + " for " + url);
+				}
+				position = have;
+			}
+			else if (res.code() == 416 && have > 0) // Range Not Satisfiable
+			{
+				if (("bytes */" + have).equals(res.header("Content-Range")))
+				{
+					return; // Part already has everything
+				}
+				startOver = true;
+			}
+			else if (!res.isSuccessful())
+			{
+				throw ApiCircuitBreaker.statusError(res.code(), res.code() + ": " + res.message() + " for " + url);
+			}
+
+			if (!startOver)
+			{
+				// Check before writing, an error page shouldn't end up in (or be appended to) the part
+				try
+				{
+					MediaVerifier.checkContentType(res.header("Content-Type"));
+				}
+				catch (IOException e)
+				{
+					throw new ApiCircuitBreaker.Rejected("Not downloading " + url, e);
+				}
+				write(res, call, partPath, position, written);
+			}
+		}
+
+		if (startOver)
+		{
+			// Truncated rather than deleted, someone might be reading it
+			try (FileChannel part = FileChannel.open(partPath, StandardOpenOption.WRITE))
+			{
+				part.truncate(0);
+			}
+			written.accept(0);
+			download(url, partPath, written);
+		}
+	}
+
+	private void write(Response res, ReadableByteChannel in, Path partPath, long position, LongConsumer written) throws IOException
+	{
+		long start = position;
+		long expected = res.body().contentLength();
+		try (FileChannel out = FileChannel.open(partPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+		{
+			// Whatever is beyond position is stale (a 200 means the server is sending everything again)
+			out.truncate(position);
+			written.accept(position);
+			for (long read; (read = out.transferFrom(in, position, TRANSFER_CHUNK)) > 0; )
+			{
+				position += read;
+				progress.transferred(read);
+				written.accept(position);
+			}
+		}
+		if (expected >= 0 && position - start != expected)
+		{
+			// What we got is still fine to resume from
+			throw new IOException("Connection ended after " + (position - start) + " of " + expected + " bytes");
+		}
+	}
+
+	/**
+	 * A call whose blocking parts (waiting for the response and reading its body) give up when the thread gets
+	 * interrupted, by cancelling the call. Socket I/O doesn't notice interrupts, it would only stop at its timeout.
+	 */
+	private static class InterruptibleCall extends AbstractInterruptibleChannel implements ReadableByteChannel
+	{
+		private final Call call;
+		private final byte[] buffer = new byte[8 * 1024];
+		private InputStream body;
+		private volatile boolean drained;
+
+		InterruptibleCall(Call call)
+		{
+			this.call = call;
+		}
+
+		Response execute() throws IOException
+		{
+			Response res = null;
+			try
+			{
+				begin();
+				res = call.execute();
+				body = res.body().byteStream();
+			}
+			finally
+			{
+				try
+				{
+					end(res != null);
+				}
+				catch (IOException e)
+				{
+					if (res != null) res.close();
+					throw e;
+				}
+			}
+			return res;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException
+		{
+			if (!isOpen()) throw new ClosedChannelException();
+
+			int read = 0;
+			try
+			{
+				begin();
+				read = body.read(buffer, 0, Math.min(buffer.length, dst.remaining()));
+				if (read > 0) dst.put(buffer, 0, read);
+			}
+			finally
+			{
+				end(read != 0);
+			}
+			if (read < 0) drained = true;
+			return read;
+		}
+
+		@Override
+		protected void implCloseChannel()
+		{
+			// Cancelling a call that's read entirely would needlessly drop its connection from the pool
+			if (!drained) call.cancel();
+		}
+	}
+}
@@ -0,0 +1,544 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Decodes a FLAC file a frame at a time into 16 bit PCM (higher bit depths are truncated, lower ones scaled up).
+ * Samples of more than 24 bits aren't supported.
+ * <p>
+ * There's no seeking to an arbitrary position (nor a SEEKTABLE lookup), the only seek is {@link #rewind()} back to the
+ * first frame, so looping doesn't parse the metadata again.
+ */
+final class FlacPcmStream implements PcmStream
+{
+	private static final int READ_BYTES = 64 * 1024;
+	private static final int MARKER = 0x664C6143; // fLaC
+	private static final int STREAMINFO = 0;
+
+	private static final int CHANNELS_LEFT_SIDE = 8;
+	private static final int CHANNELS_SIDE_RIGHT = 9;
+	private static final int CHANNELS_MID_SIDE = 10;
+
+	private static final int[] SAMPLE_SIZES = {0, 8, 12, 0, 16, 20, 24, 32};
+
+	private final SeekableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(READ_BYTES);
+
+	/**
+	 * Bits read from {@link #buffer} but not consumed yet, the lowest {@link #bitCount} bits are valid
+	 */
+	private long bits;
+	private int bitCount;
+
+	private final int bitsPerSample;
+	private final int channels;
+	private final long firstFrameOffset;
+	private final AudioFormat format;
+
+	private final int[][] samples;
+	private int blockSize;
+	private int blockOffset;
+
+	/**
+	 * Takes ownership of {@code channel}, closing it when closed.
+	 */
+	FlacPcmStream(SeekableByteChannel channel) throws IOException
+	{
+		this.channel = channel;
+		try
+		{
+			buffer.flip();
+			skipId3();
+			if (readBits(32) != MARKER)
+			{
+				throw new IOException("Not a FLAC file");
+			}
+
+			int sampleRate = 0, channels = 0, bitsPerSample = 0, maxBlockSize = 0;
+			boolean last;
+			do
+			{
+				last = readBits(1) == 1;
+				int type = readBits(7);
+				int length = readBits(24);
+				if (type == STREAMINFO)
+				{
+					readBits(16); // Min block size
+					maxBlockSize = readBits(16);
+					readBits(24); // Min frame size
+					readBits(24); // Max frame size
+					sampleRate = readBits(20);
+					channels = readBits(3) + 1;
+					bitsPerSample = readBits(5) + 1;
+					readBits(4); // First bits of the total samples, the rest is byte aligned
+					skip(length - 14);
+				}
+				else
+				{
+					skip(length);
+				}
+			}
+			while (!last);
+
+			if (sampleRate == 0 || maxBlockSize == 0)
+			{
+				throw new IOException("No (valid) STREAMINFO");
+			}
+			if (bitsPerSample > 24)
+			{
+				throw new IOException(bitsPerSample + " bit samples, at most 24 is supported");
+			}
+			this.channels = channels;
+			this.bitsPerSample = bitsPerSample;
+			firstFrameOffset = position();
+			samples = new int[channels][maxBlockSize];
+			format = new AudioFormat(sampleRate, 16, channels, true, false);
+		}
+		catch (IOException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public AudioFormat getFormat()
+	{
+		return format;
+	}
+
+	@Override
+	public int read(byte[] out, int offset, int length) throws IOException
+	{
+		while (blockOffset >= blockSize)
+		{
+			if (!decodeFrame()) return -1;
+		}
+
+		int frames = Math.min(blockSize - blockOffset, length / (channels * 2));
+		int shift = bitsPerSample - 16;
+		int i = offset;
+		for (int f = blockOffset, end = blockOffset + frames; f < end; f++)
+		{
+			for (int ch = 0; ch < channels; ch++)
+			{
+				int sample = shift >= 0 ? samples[ch][f] >> shift : samples[ch][f] << -shift;
+				out[i++] = (byte) sample;
+				out[i++] = (byte) (sample >> 8);
+			}
+		}
+		blockOffset += frames;
+		return i - offset;
+	}
+
+	@Override
+	public void rewind() throws IOException
+	{
+		channel.position(firstFrameOffset);
+		buffer.clear().flip();
+		bitCount = 0;
+		blockSize = blockOffset = 0;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	/**
+	 * Decodes the next frame into {@link #samples}.
+	 *
+	 * @return false at the end of the file
+	 */
+	private boolean decodeFrame() throws IOException
+	{
+		try
+		{
+			while (true)
+			{
+				int syncEnd = findSync();
+				if (syncEnd < 0) return false;
+				if (readFrame(syncEnd)) return true;
+			}
+		}
+		catch (EOFException e)
+		{
+			return false; // Cut off in the middle of a frame, play what we had
+		}
+	}
+
+	/**
+	 * Skips to just after the next frame sync code (which is always byte aligned).
+	 *
+	 * @return the second byte of the sync code (its last bit is the blocking strategy), or -1 at the end of the file
+	 */
+	private int findSync() throws IOException
+	{
+		bitCount -= bitCount % 8;
+		int previous = 0;
+		while (true)
+		{
+			if (bitCount == 0 && !fill()) return -1;
+
+			int current = readBits(8);
+			if (previous == 0xFF && (current & 0xFE) == 0xF8) return current;
+			previous = current;
+		}
+	}
+
+	/**
+	 * @return false if what looked like a frame header wasn't one
+	 */
+	private boolean readFrame(int syncEnd) throws IOException
+	{
+		int crc = Crc8.update(Crc8.update(0, 0xFF), syncEnd);
+		int header = readBits(16);
+		int blockSizeCode = header >>> 12;
+		int sampleRateCode = header >>> 8 & 0xF;
+		int channelAssignment = header >>> 4 & 0xF;
+		int sampleSizeCode = header >>> 1 & 0x7;
+		if (blockSizeCode == 0 || sampleRateCode == 0xF || channelAssignment > CHANNELS_MID_SIDE
+				|| sampleSizeCode == 3 || (header & 1) != 0)
+		{
+			return false;
+		}
+		crc = Crc8.update(Crc8.update(crc, header >>> 8), header & 0xFF);
+
+		// Frame or sample number, UTF-8 like coded, we don't need it
+		int first = readBits(8);
+		crc = Crc8.update(crc, first);
+		for (int extra = Integer.numberOfLeadingZeros(~first << 24); extra > 1; extra--)
+		{
+			crc = Crc8.update(crc, readBits(8));
+		}
+
+		int size;
+		if (blockSizeCode == 1)
+		{
+			size = 192;
+		}
+		else if (blockSizeCode <= 5)
+		{
+			size = 576 << (blockSizeCode - 2);
+		}
+		else if (blockSizeCode == 6)
+		{
+			size = readBits(8);
+			crc = Crc8.update(crc, size);
+			size++;
+		}
+		else if (blockSizeCode == 7)
+		{
+			size = readBits(16);
+			crc = Crc8.update(Crc8.update(crc, size >>> 8), size & 0xFF);
+			size++;
+		}
+		else
+		{
+			size = 256 << (blockSizeCode - 8);
+		}
+
+		if (sampleRateCode == 12)
+		{
+			crc = Crc8.update(crc, readBits(8));
+		}
+		else if (sampleRateCode == 13 || sampleRateCode == 14)
+		{
+			int rate = readBits(16);
+			crc = Crc8.update(Crc8.update(crc, rate >>> 8), rate & 0xFF);
+		}
+
+		if (readBits(8) != crc) return false;
+
+		int frameChannels = channelAssignment < CHANNELS_LEFT_SIDE ? channelAssignment + 1 : 2;
+		int sampleSize = sampleSizeCode == 0 ? bitsPerSample : SAMPLE_SIZES[sampleSizeCode];
+		if (frameChannels != channels || size > samples[0].length || sampleSize != bitsPerSample)
+		{
+			throw new IOException("Stream parameters change mid stream, which isn't supported");
+		}
+
+		for (int ch = 0; ch < channels; ch++)
+		{
+			boolean side = channelAssignment == CHANNELS_LEFT_SIDE && ch == 1
+					|| channelAssignment == CHANNELS_SIDE_RIGHT && ch == 0
+					|| channelAssignment == CHANNELS_MID_SIDE && ch == 1;
+			readSubframe(samples[ch], size, sampleSize + (side ? 1 : 0));
+		}
+		bitCount -= bitCount % 8;
+		readBits(16); // CRC-16 of the frame, the header's CRC-8 already tells us we're in sync
+		decorrelate(channelAssignment, size);
+
+		blockSize = size;
+		blockOffset = 0;
+		return true;
+	}
+
+	private void readSubframe(int[] out, int size, int sampleSize) throws IOException
+	{
+		int header = readBits(8);
+		if ((header & 0x80) != 0) throw new IOException("Corrupt subframe");
+
+		int type = header >>> 1 & 0x3F;
+		int wasted = 0;
+		if ((header & 1) != 0)
+		{
+			wasted = readUnary() + 1;
+			sampleSize -= wasted;
+		}
+
+		if (type == 0)
+		{
+			int value = readSigned(sampleSize);
+			for (int i = 0; i < size; i++) out[i] = value;
+		}
+		else if (type == 1)
+		{
+			for (int i = 0; i < size; i++) out[i] = readSigned(sampleSize);
+		}
+		else if (type >= 8 && type <= 12)
+		{
+			int order = type - 8;
+			for (int i = 0; i < order; i++) out[i] = readSigned(sampleSize);
+			readResidual(out, size, order);
+			predictFixed(out, size, order);
+		}
+		else if (type >= 32)
+		{
+			int order = type - 31;
+			for (int i = 0; i < order; i++) out[i] = readSigned(sampleSize);
+			int precision = readBits(4) + 1;
+			if (precision == 16) throw new IOException("Invalid LPC precision");
+			int shift = readSigned(5);
+			int[] coefs = new int[order];
+			for (int i = 0; i < order; i++) coefs[i] = readSigned(precision);
+			readResidual(out, size, order);
+			predictLpc(out, size, coefs, shift);
+		}
+		else
+		{
+			throw new IOException("Reserved subframe type " + type);
+		}
+
+		if (wasted > 0)
+		{
+			for (int i = 0; i < size; i++) out[i] <<= wasted;
+		}
+	}
+
+	/**
+	 * Reads the Rice coded residuals into {@code out} (after the warm-up samples), the prediction is added later.
+	 */
+	private void readResidual(int[] out, int size, int order) throws IOException
+	{
+		int method = readBits(2);
+		if (method > 1) throw new IOException("Reserved residual coding method");
+		int paramBits = method == 0 ? 4 : 5;
+		int escape = (1 << paramBits) - 1;
+
+		int partitionOrder = readBits(4);
+		int partitionSize = size >> partitionOrder;
+		int i = order;
+		for (int partition = 0; partition < 1 << partitionOrder; partition++)
+		{
+			int end = (partition + 1) * partitionSize;
+			int param = readBits(paramBits);
+			if (param == escape)
+			{
+				int rawBits = readBits(5);
+				for (; i < end; i++) out[i] = rawBits == 0 ? 0 : readSigned(rawBits);
+			}
+			else
+			{
+				for (; i < end; i++)
+				{
+					int value = readUnary() << param | (param == 0 ? 0 : readBits(param));
+					out[i] = value >>> 1 ^ -(value & 1);
+				}
+			}
+		}
+	}
+
+	private static void predictFixed(int[] out, int size, int order)
+	{
+		for (int i = order; i < size; i++)
+		{
+			switch (order)
+			{
+				case 1:
+					out[i] += out[i - 1];
+					break;
+				case 2:
+					out[i] += 2 * out[i - 1] - out[i - 2];
+					break;
+				case 3:
+					out[i] += 3 * out[i - 1] - 3 * out[i - 2] + out[i - 3];
+					break;
+				case 4:
+					out[i] += 4 * out[i - 1] - 6 * out[i - 2] + 4 * out[i - 3] - out[i - 4];
+					break;
+			}
+		}
+	}
+
+	private static void predictLpc(int[] out, int size, int[] coefs, int shift)
+	{
+		for (int i = coefs.length; i < size; i++)
+		{
+			long prediction = 0;
+			for (int j = 0; j < coefs.length; j++)
+			{
+				prediction += (long) coefs[j] * out[i - 1 - j];
+			}
+			out[i] += (int) (prediction >> shift);
+		}
+	}
+
+	private void decorrelate(int channelAssignment, int size)
+	{
+		int[] left = samples[0];
+		int[] right = channels > 1 ? samples[1] : null;
+		switch (channelAssignment)
+		{
+			case CHANNELS_LEFT_SIDE:
+				for (int i = 0; i < size; i++) right[i] = left[i] - right[i];
+				break;
+			case CHANNELS_SIDE_RIGHT:
+				for (int i = 0; i < size; i++) left[i] += right[i];
+				break;
+			case CHANNELS_MID_SIDE:
+				for (int i = 0; i < size; i++)
+				{
+					int side = right[i];
+					int mid = left[i] << 1 | (side & 1);
+					left[i] = (mid + side) >> 1;
+					right[i] = (mid - side) >> 1;
+				}
+				break;
+		}
+	}
+
+	private void skipId3() throws IOException
+	{
+		fill();
+		if (buffer.remaining() < 10 || buffer.get(0) != 'I' || buffer.get(1) != 'D' || buffer.get(2) != '3') return;
+
+		int size = (buffer.get(6) & 0x7F) << 21 | (buffer.get(7) & 0x7F) << 14 | (buffer.get(8) & 0x7F) << 7 | buffer.get(9) & 0x7F;
+		boolean footer = (buffer.get(5) & 0x10) != 0;
+		channel.position(10 + size + (footer ? 10 : 0));
+		buffer.clear().flip();
+		bitCount = 0;
+	}
+
+	/**
+	 * Skips whole bytes, must be byte aligned.
+	 */
+	private void skip(long bytes) throws IOException
+	{
+		int buffered = (int) Math.min(bytes, bitCount / 8);
+		bitCount -= buffered * 8;
+		bytes -= buffered;
+		if (bytes <= buffer.remaining())
+		{
+			buffer.position(buffer.position() + (int) bytes);
+			return;
+		}
+		channel.position(channel.position() + bytes - buffer.remaining());
+		buffer.clear().flip();
+	}
+
+	/**
+	 * @return the file position of the next whole byte
+	 */
+	private long position() throws IOException
+	{
+		return channel.position() - buffer.remaining() - bitCount / 8;
+	}
+
+	/**
+	 * Reads more of the file if {@link #buffer} is exhausted.
+	 *
+	 * @return false at the end of the file
+	 */
+	private boolean fill() throws IOException
+	{
+		if (buffer.hasRemaining()) return true;
+
+		buffer.clear();
+		int read = channel.read(buffer);
+		buffer.flip();
+		return read > 0;
+	}
+
+	private int readBits(int count) throws IOException
+	{
+		while (bitCount < count)
+		{
+			if (!fill()) throw new EOFException("Ended unexpectedly");
+			bits = bits << 8 | buffer.get() & 0xFF;
+			bitCount += 8;
+		}
+		bitCount -= count;
+		return (int) (bits >>> bitCount & (1L << count) - 1);
+	}
+
+	private int readSigned(int count) throws IOException
+	{
+		return readBits(count) << (32 - count) >> (32 - count);
+	}
+
+	/**
+	 * @return the number of 0 bits before the next 1 bit (which is consumed too)
+	 */
+	private int readUnary() throws IOException
+	{
+		int zeros = 0;
+		while (true)
+		{
+			if (bitCount == 0)
+			{
+				if (!fill()) throw new EOFException("Ended unexpectedly");
+				bits = buffer.get() & 0xFF;
+				bitCount = 8;
+			}
+			long valid = bits & (1L << bitCount) - 1;
+			if (valid == 0)
+			{
+				zeros += bitCount;
+				bitCount = 0;
+				continue;
+			}
+			int leading = Long.numberOfLeadingZeros(valid) - (64 - bitCount);
+			zeros += leading;
+			bitCount -= leading + 1;
+			return zeros;
+		}
+	}
+
+	private static final class Crc8
+	{
+		private static final int[] TABLE = new int[256];
+
+		static
+		{
+			for (int i = 0; i < 256; i++)
+			{
+				int crc = i;
+				for (int bit = 0; bit < 8; bit++)
+				{
+					crc = (crc & 0x80) != 0 ? (crc << 1 ^ 0x07) & 0xFF : crc << 1 & 0xFF;
+				}
+				TABLE[i] = crc;
+			}
+		}
+
+		static int update(int crc, int value)
+		{
+			return TABLE[(crc ^ value) & 0xFF];
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * A download that's still being written, so it can be played while it comes in.
+ * Reading it blocks until the download got that far, and ends once the download is {@link #completed()}.
+ */
+final class GrowingFile
+{
+	@Getter
+	private final Path part;
+	/**
+	 * Where the download ends up once done
+	 */
+	@Getter
+	private final Path target;
+
+	private long length;
+	private boolean complete;
+	private IOException failure;
+
+	GrowingFile(Path part, Path target)
+	{
+		this.part = part;
+		this.target = target;
+	}
+
+	/**
+	 * The download wrote up to {@code length} (which goes down again if it had to start over).
+	 */
+	synchronized void grown(long length)
+	{
+		this.length = length;
+		notifyAll();
+	}
+
+	/**
+	 * The download is done and {@link #getTarget() published}.
+	 */
+	synchronized void completed()
+	{
+		complete = true;
+		notifyAll();
+	}
+
+	synchronized void failed(IOException failure)
+	{
+		this.failure = failure;
+		notifyAll();
+	}
+
+	synchronized long length()
+	{
+		return length;
+	}
+
+	synchronized boolean isComplete()
+	{
+		return complete;
+	}
+
+	synchronized boolean isFailed()
+	{
+		return failure != null;
+	}
+
+	/**
+	 * @return a channel reading what's downloaded so far, which waits for more instead of ending early
+	 */
+	SeekableByteChannel open() throws IOException
+	{
+		if (isComplete()) return FileChannel.open(target);
+		try
+		{
+			// Opened through NIO so publishing (moving) the part stays possible on Windows while it's being read
+			return new Reader(FileChannel.open(part));
+		}
+		catch (NoSuchFileException e)
+		{
+			// Just published, but not marked completed yet
+			return new Reader(FileChannel.open(target));
+		}
+	}
+
+	/**
+	 * @return the length once it's beyond {@code position}, or whatever it is once complete
+	 */
+	private synchronized long awaitBeyond(long position) throws IOException
+	{
+		while (length <= position && !complete && failure == null)
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Stopped waiting for " + part);
+			}
+		}
+		if (failure != null) throw new IOException("Download of " + target + " failed", failure);
+		return length;
+	}
+
+	private class Reader implements SeekableByteChannel
+	{
+		private final FileChannel file;
+
+		Reader(FileChannel file)
+		{
+			this.file = file;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException
+		{
+			long position = file.position();
+			long available = awaitBeyond(position) - position;
+			if (available <= 0) return -1;
+
+			ByteBuffer limited = dst.duplicate();
+			limited.limit(limited.position() + (int) Math.min(dst.remaining(), available));
+			int read = file.read(limited);
+			if (read > 0) dst.position(limited.position());
+			return read;
+		}
+
+		@Override
+		public int write(ByteBuffer src)
+		{
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public long position() throws IOException
+		{
+			return file.position();
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition) throws IOException
+		{
+			file.position(newPosition);
+			return this;
+		}
+
+		@Override
+		public long size()
+		{
+			return length();
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size)
+		{
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public boolean isOpen()
+		{
+			return file.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			file.close();
+		}
+	}
+}
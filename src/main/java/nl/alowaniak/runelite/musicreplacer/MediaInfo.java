@@ -0,0 +1,23 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import lombok.Value;
+
+/**
+ * What {@link MediaVerifier} found out about an override's media when it was transferred.
+ */
+@Value
+class MediaInfo
+{
+	long bytes;
+	/**
+	 * Human readable, e.g. "MPEG-1 Layer III 192 kbps" or "PCM_SIGNED 16 bit"
+	 */
+	String format;
+	float sampleRate;
+	int channels;
+	/**
+	 * Sample frames, estimated when the header doesn't tell (e.g. a CBR mp3 without Xing header)
+	 */
+	long frames;
+	long durationMillis;
+}
@@ -0,0 +1,409 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Checks transferred media before it becomes an override, so broken files are rejected at import instead of when
+ * they're about to be played. Only headers are read (no decoding), cheap enough to do for every transfer.
+ */
+final class MediaVerifier
+{
+	private static final long MIN_BYTES = 1024;
+	private static final long WAV_HEADER_BYTES = 44;
+	/**
+	 * How far into an mp3 (after its ID3 tag) we look for the first frame
+	 */
+	private static final int MP3_SCAN_BYTES = 64 * 1024;
+	/**
+	 * Shorter than this part of the duration the API told us means it was cut off
+	 */
+	private static final double MIN_EXPECTED_DURATION_RATIO = .5;
+
+	/**
+	 * "OggS" read little endian
+	 */
+	private static final int OGG_CAPTURE_PATTERN = 0x5367674F;
+	private static final int OGG_FIRST_PAGE_BYTES = 512;
+	/**
+	 * Ogg pages are at most ~64KB
+	 */
+	private static final int OGG_LAST_PAGE_SCAN_BYTES = 66 * 1024;
+
+	/**
+	 * "fLaC"
+	 */
+	private static final int FLAC_MARKER = 0x664C6143;
+	/**
+	 * Marker, metadata block header and the fields of STREAMINFO we read
+	 */
+	private static final int FLAC_HEADER_BYTES = 4 + 4 + 10 + 8;
+
+	private static final int[][] MP3_BITRATES_KBPS = {
+			{0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448}, // MPEG-1 Layer I
+			{0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384}, // MPEG-1 Layer II
+			{0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}, // MPEG-1 Layer III
+			{0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256}, // MPEG-2(.5) Layer I
+			{0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}, // MPEG-2(.5) Layer II & III
+	};
+	private static final int[][] MP3_SAMPLE_RATES = {
+			{11025, 12000, 8000}, // MPEG-2.5
+			{}, // reserved
+			{22050, 24000, 16000}, // MPEG-2
+			{44100, 48000, 32000}, // MPEG-1
+	};
+	private static final String[] MP3_VERSION_NAMES = {"MPEG-2.5", null, "MPEG-2", "MPEG-1"};
+	private static final String[] MP3_LAYER_NAMES = {null, "Layer III", "Layer II", "Layer I"};
+
+	private MediaVerifier() {}
+
+	/**
+	 * Rejects responses that clearly aren't audio, like an error page served with a 200.
+	 */
+	static void checkContentType(String contentType) throws IOException
+	{
+		if (contentType == null) return;
+
+		String type = contentType.toLowerCase();
+		if (type.startsWith("text/") || type.contains("json") || type.contains("xml"))
+		{
+			throw new IOException("Expected audio but got " + contentType);
+		}
+	}
+
+	/**
+	 * @param expected the duration the source claims the media has, or {@code null} if unknown
+	 * @throws IOException if {@code file} isn't media we can play or looks cut off
+	 */
+	static MediaInfo verify(Path file, String ext, Duration expected) throws IOException
+	{
+		long bytes = Files.size(file);
+		if (bytes < MIN_BYTES)
+		{
+			throw new IOException(file + " is only " + bytes + " bytes");
+		}
+
+		MediaInfo info;
+		switch (ext)
+		{
+			case ".wav":
+				info = probeWav(file, bytes);
+				break;
+			case ".mp3":
+				info = probeMp3(file, bytes);
+				break;
+			case ".ogg":
+				info = probeOgg(file, bytes);
+				break;
+			case ".flac":
+				info = probeFlac(file, bytes);
+				break;
+			default:
+				throw new IOException("Can't verify " + ext + " media " + file);
+		}
+
+		if (info.getDurationMillis() <= 0)
+		{
+			throw new IOException(file + " has no audio");
+		}
+		if (expected != null && !expected.isZero()
+				&& info.getDurationMillis() < expected.toMillis() * MIN_EXPECTED_DURATION_RATIO)
+		{
+			throw new IOException(file + " lasts " + info.getDurationMillis() + "ms but should be " + expected);
+		}
+		return info;
+	}
+
+	private static MediaInfo probeWav(Path file, long bytes) throws IOException
+	{
+		AudioFileFormat fileFormat;
+		try
+		{
+			fileFormat = AudioSystem.getAudioFileFormat(file.toFile());
+		}
+		catch (UnsupportedAudioFileException e)
+		{
+			throw new IOException(file + " isn't a readable wav", e);
+		}
+
+		AudioFormat format = fileFormat.getFormat();
+		AudioFormat.Encoding encoding = format.getEncoding();
+		if (!encoding.equals(AudioFormat.Encoding.PCM_SIGNED) && !encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED)
+				&& !encoding.equals(AudioFormat.Encoding.PCM_FLOAT) && !encoding.equals(AudioFormat.Encoding.ULAW)
+				&& !encoding.equals(AudioFormat.Encoding.ALAW))
+		{
+			throw new IOException(file + " has unsupported encoding " + encoding);
+		}
+		if (format.getChannels() < 1 || format.getChannels() > 2 || format.getFrameSize() <= 0)
+		{
+			throw new IOException(file + " has unsupported format " + format);
+		}
+
+		long frames = fileFormat.getFrameLength();
+		if (frames == AudioSystem.NOT_SPECIFIED)
+		{
+			// Streamed wavs may not know their length, the data is the rest of the file
+			frames = Math.max(0, bytes - WAV_HEADER_BYTES) / format.getFrameSize();
+		}
+		else if (frames * format.getFrameSize() > bytes)
+		{
+			throw new IOException(file + " is cut off, its header promises " + frames + " frames");
+		}
+
+		return new MediaInfo(bytes, encoding + " " + format.getSampleSizeInBits() + " bit", format.getSampleRate(),
+				format.getChannels(), frames, (long) (frames * 1000 / format.getSampleRate()));
+	}
+
+	private static MediaInfo probeMp3(Path file, long bytes) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file))
+		{
+			ByteBuffer buffer = ByteBuffer.allocate(MP3_SCAN_BYTES);
+			long start = id3v2Size(channel);
+			channel.position(start);
+			while (buffer.hasRemaining() && channel.read(buffer) != -1) ;
+			buffer.flip();
+
+			// A frame only counts if the next one is right where its header says it ends (sync bits show up in data too)
+			for (int i = 0; i + 4 <= buffer.limit(); i++)
+			{
+				int header = buffer.getInt(i);
+				int length = mp3FrameLength(header);
+				if (length <= 0 || !sameStream(header, intAt(channel, buffer, start, i + length))) continue;
+
+				return mp3Info(header, buffer, i, bytes - start - i, bytes);
+			}
+		}
+		throw new IOException(file + " has no mp3 frames");
+	}
+
+	/**
+	 * @return the int at {@code offset} of the scanned {@code buffer} (which was read from {@code start}), read from
+	 * {@code channel} if it's beyond the buffer, 0 if it's beyond the end of the file
+	 */
+	private static int intAt(FileChannel channel, ByteBuffer buffer, long start, int offset) throws IOException
+	{
+		if (offset + 4 <= buffer.limit()) return buffer.getInt(offset);
+
+		ByteBuffer four = ByteBuffer.allocate(4);
+		while (four.hasRemaining())
+		{
+			if (channel.read(four, start + offset + four.position()) == -1) return 0;
+		}
+		return four.getInt(0);
+	}
+
+	/**
+	 * Reads the Vorbis identification header from the first page, and the length from the granule position of the
+	 * last page (which is the number of samples so far).
+	 */
+	private static MediaInfo probeOgg(Path file, long bytes) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file))
+		{
+			ByteBuffer first = ByteBuffer.allocate(OGG_FIRST_PAGE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while (first.hasRemaining() && channel.read(first) != -1) ;
+			first.flip();
+			if (first.limit() < 28 || first.getInt(0) != OGG_CAPTURE_PATTERN)
+			{
+				throw new IOException(file + " isn't an Ogg bitstream");
+			}
+
+			// Page header is 27 bytes plus a segment table, then the identification packet
+			int packet = 27 + (first.get(26) & 0xFF);
+			if (packet + 16 > first.limit() || first.get(packet) != 1 || first.get(packet + 1) != 'v'
+					|| first.get(packet + 2) != 'o' || first.get(packet + 3) != 'r')
+			{
+				throw new IOException(file + " doesn't start with a Vorbis header (only Vorbis is supported)");
+			}
+			int channels = first.get(packet + 11) & 0xFF;
+			int sampleRate = first.getInt(packet + 12);
+			if (channels < 1 || sampleRate <= 0)
+			{
+				throw new IOException(file + " has a corrupt Vorbis header");
+			}
+
+			int tailBytes = (int) Math.min(bytes, OGG_LAST_PAGE_SCAN_BYTES);
+			ByteBuffer tail = ByteBuffer.allocate(tailBytes).order(ByteOrder.LITTLE_ENDIAN);
+			channel.position(bytes - tailBytes);
+			while (tail.hasRemaining() && channel.read(tail) != -1) ;
+			tail.flip();
+			for (int i = tail.limit() - 27; i >= 0; i--)
+			{
+				if (tail.getInt(i) != OGG_CAPTURE_PATTERN) continue;
+
+				long frames = tail.getLong(i + 6);
+				if (frames <= 0) continue;
+				return new MediaInfo(bytes, "Ogg Vorbis", sampleRate, channels, frames, frames * 1000 / sampleRate);
+			}
+		}
+		throw new IOException(file + " has no complete Ogg pages at its end");
+	}
+
+	/**
+	 * STREAMINFO is required to be the first metadata block and has everything we want to know.
+	 */
+	private static MediaInfo probeFlac(Path file, long bytes) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file))
+		{
+			channel.position(id3v2Size(channel));
+			ByteBuffer header = ByteBuffer.allocate(FLAC_HEADER_BYTES);
+			while (header.hasRemaining() && channel.read(header) != -1) ;
+			header.flip();
+			if (header.limit() < FLAC_HEADER_BYTES || header.getInt(0) != FLAC_MARKER)
+			{
+				throw new IOException(file + " isn't a FLAC file");
+			}
+			if ((header.get(4) & 0x7F) != 0 || (header.getInt(4) & 0xFFFFFF) < 34)
+			{
+				throw new IOException(file + " doesn't start with a STREAMINFO block");
+			}
+
+			// After min/max block and frame sizes: 20 bits sample rate, 3 channels, 5 bits per sample, 36 samples
+			long packed = header.getLong(18);
+			int sampleRate = (int) (packed >>> 44);
+			int channels = (int) (packed >>> 41 & 0x7) + 1;
+			int bitsPerSample = (int) (packed >>> 36 & 0x1F) + 1;
+			long frames = packed & 0xFFFFFFFFFL;
+			if (sampleRate == 0)
+			{
+				throw new IOException(file + " has a corrupt STREAMINFO block");
+			}
+			if (frames == 0)
+			{
+				throw new IOException(file + " doesn't say how long it is (unknown total samples)");
+			}
+			return new MediaInfo(bytes, "FLAC " + bitsPerSample + " bit", sampleRate, channels, frames,
+					frames * 1000 / sampleRate);
+		}
+	}
+
+	/**
+	 * @return the size of the ID3v2 tag at the start of {@code channel}, or 0 if there's none
+	 */
+	private static long id3v2Size(FileChannel channel) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(10);
+		while (header.hasRemaining() && channel.read(header) != -1) ;
+		if (header.position() < 10 || header.get(0) != 'I' || header.get(1) != 'D' || header.get(2) != '3') return 0;
+
+		// Syncsafe integer, 7 bits per byte
+		int size = (header.get(6) & 0x7F) << 21 | (header.get(7) & 0x7F) << 14 | (header.get(8) & 0x7F) << 7 | (header.get(9) & 0x7F);
+		boolean footer = (header.get(5) & 0x10) != 0;
+		return 10 + size + (footer ? 10 : 0);
+	}
+
+	private static MediaInfo mp3Info(int header, ByteBuffer buffer, int offset, long audioBytes, long bytes)
+	{
+		int version = (header >>> 19) & 3;
+		int layer = (header >>> 17) & 3;
+		int bitrate = mp3Bitrate(header);
+		int sampleRate = MP3_SAMPLE_RATES[version][(header >>> 10) & 3];
+		int channels = ((header >>> 6) & 3) == 3 ? 1 : 2;
+		int samplesPerFrame = mp3SamplesPerFrame(version, layer);
+
+		long frames;
+		int vbrFrames = xingFrameCount(header, buffer, offset);
+		if (vbrFrames > 0)
+		{
+			frames = (long) vbrFrames * samplesPerFrame;
+		}
+		else
+		{
+			// Assume constant bitrate
+			frames = audioBytes * 8 * sampleRate / (bitrate * 1000L);
+		}
+
+		String format = MP3_VERSION_NAMES[version] + " " + MP3_LAYER_NAMES[layer] + (vbrFrames > 0 ? " VBR" : " " + bitrate + " kbps");
+		return new MediaInfo(bytes, format, sampleRate, channels, frames, frames * 1000 / sampleRate);
+	}
+
+	/**
+	 * @return the number of mpeg frames from a Xing/Info (or VBRI) header in the first frame, or -1 if there's none
+	 */
+	private static int xingFrameCount(int header, ByteBuffer buffer, int offset)
+	{
+		boolean mpeg1 = ((header >>> 19) & 3) == 3;
+		boolean mono = ((header >>> 6) & 3) == 3;
+		int sideInfo = mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+
+		int xing = offset + 4 + sideInfo;
+		if (xing + 12 <= buffer.limit())
+		{
+			int tag = buffer.getInt(xing);
+			boolean framesPresent = (buffer.getInt(xing + 4) & 1) != 0;
+			if ((tag == 0x58696E67 || tag == 0x496E666F) && framesPresent) // "Xing" or "Info"
+			{
+				return buffer.getInt(xing + 8);
+			}
+		}
+
+		int vbri = offset + 4 + 32;
+		if (vbri + 18 <= buffer.limit() && buffer.getInt(vbri) == 0x56425249) // "VBRI"
+		{
+			return buffer.getInt(vbri + 14);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the length in bytes of the frame with {@code header}, or -1 if it isn't a valid frame header
+	 */
+	private static int mp3FrameLength(int header)
+	{
+		if ((header >>> 21) != 0x7FF) return -1;
+
+		int version = (header >>> 19) & 3;
+		int layer = (header >>> 17) & 3;
+		int sampleRateIndex = (header >>> 10) & 3;
+		if (version == 1 || layer == 0 || sampleRateIndex == 3) return -1;
+
+		int bitrate = mp3Bitrate(header);
+		if (bitrate <= 0) return -1; // free format is too rare to bother with
+
+		int sampleRate = MP3_SAMPLE_RATES[version][sampleRateIndex];
+		int padding = (header >>> 9) & 1;
+		if (layer == 3) // Layer I has 4 byte slots
+		{
+			return (12 * bitrate * 1000 / sampleRate + padding) * 4;
+		}
+		return mp3SamplesPerFrame(version, layer) / 8 * bitrate * 1000 / sampleRate + padding;
+	}
+
+	private static int mp3Bitrate(int header)
+	{
+		int version = (header >>> 19) & 3;
+		int layer = (header >>> 17) & 3;
+		int index = (header >>> 12) & 15;
+		if (index == 15) return -1;
+
+		int table = version == 3 ? 3 - layer : (layer == 3 ? 3 : 4);
+		return MP3_BITRATES_KBPS[table][index];
+	}
+
+	private static int mp3SamplesPerFrame(int version, int layer)
+	{
+		if (layer == 3) return 384;
+		if (layer == 2 || version == 3) return 1152;
+		return 576; // MPEG-2(.5) Layer III
+	}
+
+	/**
+	 * Whether {@code next} is a frame of the same stream as {@code header} (same version, layer and sample rate)
+	 */
+	private static boolean sameStream(int header, int next)
+	{
+		int mask = 0xFFFE0C00;
+		return mp3FrameLength(next) > 0 && (header & mask) == (next & mask);
+	}
+}
@@ -1,32 +1,53 @@
 package nl.alowaniak.runelite.musicreplacer;
 
 import com.adonax.audiocue.AudioCue;
+import com.adonax.audiocue.AudioCueInstanceEvent;
+import com.adonax.audiocue.AudioCueListener;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
 import jaco.mp3.player.MP3Player;
 import lombok.SneakyThrows;
 import org.slf4j.LoggerFactory;
 
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
 import javax.swing.*;
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 
 public interface MusicPlayer {
 
-    ImmutableMap<String, Function<URI, MusicPlayer>> PLAYER_PER_EXT = ImmutableMap.of(
-            ".mp3", JacoPlayer::new,
+    ImmutableMap<String, BiFunction<URI, MusicReplacerConfig, MusicPlayer>> PLAYER_PER_EXT = ImmutableMap.of(
+            ".mp3", (media, config) -> new JacoPlayer(media),
+            ".ogg", (media, config) -> new OggPlayer(media),
+            ".flac", (media, config) -> new FlacPlayer(media),
             ".wav", AudioCuePlayer::new
     );
 
-    static MusicPlayer create(URI media)
+    /**
+     * Players that can start on a download that's still coming in
+     */
+    ImmutableMap<String, Function<GrowingFile, MusicPlayer>> PROGRESSIVE_PLAYER_PER_EXT = ImmutableMap.of(
+            ".ogg", OggPlayer::new,
+            ".flac", FlacPlayer::new
+    );
+
+    static MusicPlayer create(URI media, MusicReplacerConfig config)
     {
-        for (Map.Entry<String, Function<URI, MusicPlayer>> extAndPlayer : PLAYER_PER_EXT.entrySet()) {
+        for (Map.Entry<String, BiFunction<URI, MusicReplacerConfig, MusicPlayer>> extAndPlayer : PLAYER_PER_EXT.entrySet()) {
             if (media.getPath().endsWith(extAndPlayer.getKey()))
                 try {
-                    return extAndPlayer.getValue().apply(media);
+                    return extAndPlayer.getValue().apply(media, config);
                 } catch (Exception e) {
                     LoggerFactory.getLogger(MusicPlayer.class).warn("Couldn't load player for " + media, e);
                 }
@@ -34,22 +55,87 @@ public interface MusicPlayer {
         return null;
     }
 
+    /**
+     * @return a player for {@code download} while it's still downloading, or null if its format can't be played like that
+     */
+    static MusicPlayer createProgressive(GrowingFile download)
+    {
+        for (Map.Entry<String, Function<GrowingFile, MusicPlayer>> extAndPlayer : PROGRESSIVE_PLAYER_PER_EXT.entrySet()) {
+            if (download.getTarget().toString().endsWith(extAndPlayer.getKey()))
+                return extAndPlayer.getValue().apply(download);
+        }
+        return null;
+    }
+
     void play();
 
     boolean isPlaying();
 
     void setVolume(double volume);
 
+    /**
+     * Whether to restart from the beginning when the end is reached, handled by the player itself (without gap).
+     * Can be toggled while playing.
+     */
+    void setLooping(boolean looping);
+
+    /**
+     * Set who to notify about playback, replacing any previous listener.
+     */
+    void setListener(Listener listener);
+
     default void close() {}
 
+    /**
+     * @return how often playback ran out of audio so far (heard as a crackle), 0 if the player can't tell
+     */
+    default long getUnderrunCount()
+    {
+        return 0;
+    }
+
+    /**
+     * @return how much audio the player keeps queued right now (it grows after underruns), 0 if it can't tell
+     */
+    default int getBufferFrames()
+    {
+        return 0;
+    }
+
+    /**
+     * Gets notified about playback of a {@link MusicPlayer}.
+     * Called from a thread of the player itself (so not the client thread) and not after the player is closed.
+     */
+    interface Listener {
+
+        /**
+         * The track played to its end and won't be looping.
+         */
+        void ended(MusicPlayer player);
+
+        /**
+         * The track played to its end and started over (only reported if the player can tell).
+         */
+        default void looped(MusicPlayer player) {}
+    }
+
     class JacoPlayer implements MusicPlayer {
 
         public static final MP3Player player = new MP3Player();
+        /**
+         * How often a waiter checks whether it's still the one to tell about the end
+         */
+        private static final long WAITER_CHECK_MILLIS = 100;
+
         private final File tempPlayFile; // A hacky solution for overriding/deleting current playing song
+        private volatile Listener listener;
+        private volatile boolean looping;
+        private volatile Thread waiter;
 
         @SneakyThrows
         public JacoPlayer(URI mediaFile) {
             player.clearPlayList();
+            player.setRepeat(false);
             tempPlayFile = File.createTempFile("tmpJacoPlayfile", ".mp3");
             tempPlayFile.deleteOnExit();
             Files.copy(new File(mediaFile).toPath(), tempPlayFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
@@ -58,7 +144,33 @@ public interface MusicPlayer {
 
         @Override
         public void play() {
-            player.play();
+            // JaCo doesn't tell when it's done, but it decodes on a thread it starts from play(). Calling play() from a
+            // thread in a group of our own puts that thread in there too, so the end of its run can be waited for.
+            // A daemon group is destroyed once its threads are done.
+            ThreadGroup playing = new ThreadGroup("music-replacer-jaco");
+            playing.setDaemon(true);
+            Thread starter = new Thread(playing, player::play, "music-replacer-jaco-start");
+            starter.setDaemon(true);
+            starter.start();
+            // Still playing once this returns, like calling JaCo directly
+            Uninterruptibles.joinUninterruptibly(starter);
+
+            Thread waiter = new Thread(() -> awaitEnd(playing), "music-replacer-jaco-waiter");
+            waiter.setDaemon(true);
+            this.waiter = waiter;
+            waiter.start();
+        }
+
+        private void awaitEnd(ThreadGroup playing) {
+            Thread[] threads = new Thread[4];
+            // When repeating, JaCo starts the next round from the thread of the previous one, so that's in here too.
+            // Given up once played again (or closed), the newer waiter takes over.
+            while (waiter == Thread.currentThread() && playing.enumerate(threads) > 0) {
+                Uninterruptibles.joinUninterruptibly(threads[0], WAITER_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            }
+
+            Listener l = listener;
+            if (waiter == Thread.currentThread() && !looping && l != null) l.ended(this);
         }
 
         @Override
@@ -73,8 +185,22 @@ public interface MusicPlayer {
             player.setVolume(intVol);
         }
 
+        @Override
+        public void setLooping(boolean looping) {
+            // With a single track playlist JaCo's repeat restarts the track on its own play thread
+            this.looping = looping;
+            player.setRepeat(looping);
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+            this.listener = listener;
+        }
+
         @Override
         public void close() {
+            listener = null;
+            waiter = null;
             player.stop();
             tempPlayFile.delete();
         }
@@ -85,22 +211,51 @@ public interface MusicPlayer {
         // Same hacky solution as JaCo even though it shouldn't happen here cause audiocue fully loads in memory
         private final File tempPlayFile;
         private final AudioCue audioCue;
+        private boolean looping;
+        private volatile Listener listener;
+        private volatile long playedAt;
 
         @SneakyThrows
-        private AudioCuePlayer(URI media)
+        private AudioCuePlayer(URI media, MusicReplacerConfig config)
         {
             tempPlayFile = File.createTempFile("tmpJacoPlayfile", ".mp3");
             tempPlayFile.deleteOnExit();
             Files.copy(new File(media).toPath(), tempPlayFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
             audioCue = AudioCue.makeStereoCue(tempPlayFile.toURL(), 1);
-            audioCue.open();
+            audioCue.addAudioCueListener(new AudioCueListener()
+            {
+                @Override
+                public void audioCueOpened(long now, int threadPriority, int bufferSize, AudioCue source) {}
+
+                @Override
+                public void audioCueClosed(long now, AudioCue source) {}
+
+                @Override
+                public void instanceEventOccurred(AudioCueInstanceEvent event)
+                {
+                    onInstanceEvent(event);
+                }
+            });
+            audioCue.open(null, config.minAudioBufferFrames(), config.maxAudioBufferFrames(), Thread.MAX_PRIORITY);
+        }
+
+        private void onInstanceEvent(AudioCueInstanceEvent event)
+        {
+            Listener l = listener;
+            // Events are delivered a bit later, ignore what's left over from before a restart
+            if (l == null || event.time < playedAt) return;
+
+            // We never stop the instance ourselves, so a stop means it ran out
+            if (event.type == AudioCueInstanceEvent.Type.STOP_INSTANCE) l.ended(this);
+            else if (event.type == AudioCueInstanceEvent.Type.LOOP) l.looped(this);
         }
 
         @Override
         public void play()
         {
+            playedAt = System.currentTimeMillis();
             if (audioCue.getIsActive(0)) audioCue.releaseInstance(0);
-            audioCue.play();
+            audioCue.play(1, 0, 1, loopCount());
         }
 
         @Override
@@ -115,11 +270,259 @@ public interface MusicPlayer {
             audioCue.setVolume(0, volume);
         }
 
+        @Override
+        public void setLooping(boolean looping)
+        {
+            this.looping = looping;
+            if (audioCue.getIsActive(0)) audioCue.setLooping(0, loopCount());
+        }
+
+        private int loopCount()
+        {
+            return looping ? -1 : 0;
+        }
+
+        @Override
+        public void setListener(Listener listener)
+        {
+            this.listener = listener;
+        }
+
+        @Override
+        public long getUnderrunCount()
+        {
+            return audioCue.getUnderrunCount();
+        }
+
+        @Override
+        public int getBufferFrames()
+        {
+            return audioCue.getBufferFrames();
+        }
+
         @Override
         public void close()
         {
+            listener = null;
             tempPlayFile.delete();
             audioCue.close();
         }
     }
+
+    /**
+     * Decodes bit by bit on its own thread into a {@link SourceDataLine}, so only a small buffer is ever in memory.
+     * Can also play a {@link GrowingFile download} that's still coming in, waiting for it whenever playback catches up.
+     */
+    abstract class StreamingPlayer implements MusicPlayer
+    {
+        private static final int BUFFER_MILLIS = 250;
+
+        // Same hacky solution as JaCo, so the override can be replaced/deleted while playing
+        private final File tempPlayFile;
+        private final GrowingFile download;
+        private volatile double volume = 1;
+        private volatile boolean looping;
+        private volatile Listener listener;
+        private volatile Playback playback;
+
+        @SneakyThrows
+        protected StreamingPlayer(URI media, String ext)
+        {
+            tempPlayFile = File.createTempFile("tmpStreamPlayfile", ext);
+            tempPlayFile.deleteOnExit();
+            download = null;
+            Files.copy(new File(media).toPath(), tempPlayFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            // Fail now if it can't be decoded instead of once playing
+            open(openMedia()).close();
+        }
+
+        /**
+         * Not checked up front, that would wait for the headers to come in (on the client thread)
+         */
+        protected StreamingPlayer(GrowingFile download)
+        {
+            tempPlayFile = null;
+            this.download = download;
+        }
+
+        private SeekableByteChannel openMedia() throws IOException
+        {
+            return download != null ? download.open() : FileChannel.open(tempPlayFile.toPath());
+        }
+
+        /**
+         * @param media to decode, owned by the returned stream
+         */
+        protected abstract PcmStream open(SeekableByteChannel media) throws IOException;
+
+        @Override
+        public void play()
+        {
+            stop(playback);
+
+            playback = new Playback();
+            playback.thread.start();
+        }
+
+        private static void stop(Playback playback)
+        {
+            if (playback == null) return;
+            playback.stopped = true;
+            // In case it's waiting for a download
+            playback.thread.interrupt();
+        }
+
+        @Override
+        public boolean isPlaying()
+        {
+            Playback current = playback;
+            return current != null && !current.stopped && !current.done;
+        }
+
+        @Override
+        public void setVolume(double volume)
+        {
+            this.volume = volume;
+        }
+
+        @Override
+        public void setLooping(boolean looping)
+        {
+            this.looping = looping;
+        }
+
+        @Override
+        public void setListener(Listener listener)
+        {
+            this.listener = listener;
+        }
+
+        @Override
+        public void close()
+        {
+            listener = null;
+            stop(playback);
+            if (tempPlayFile != null) tempPlayFile.delete();
+        }
+
+        private class Playback implements Runnable
+        {
+            final Thread thread = new Thread(this, "music-replacer-" + StreamingPlayer.this.getClass().getSimpleName());
+            volatile boolean stopped;
+            volatile boolean done;
+
+            Playback()
+            {
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MAX_PRIORITY);
+            }
+
+            @Override
+            public void run()
+            {
+                try (PcmStream pcm = open(openMedia()))
+                {
+                    AudioFormat format = pcm.getFormat();
+                    SourceDataLine line = AudioSystem.getSourceDataLine(format);
+                    int frameSize = format.getFrameSize();
+                    int bufferBytes = (int) (format.getFrameRate() * BUFFER_MILLIS / 1000) * frameSize;
+                    line.open(format, bufferBytes);
+                    line.start();
+                    try
+                    {
+                        byte[] buffer = new byte[bufferBytes / 4 / frameSize * frameSize];
+                        while (!stopped)
+                        {
+                            int read = pcm.read(buffer, 0, buffer.length);
+                            if (read < 0)
+                            {
+                                if (!looping) break;
+
+                                pcm.rewind();
+                                notifyListener(true);
+                                continue;
+                            }
+                            applyVolume(buffer, read);
+                            line.write(buffer, 0, read);
+                        }
+                        if (!stopped) line.drain();
+                    }
+                    finally
+                    {
+                        line.close();
+                    }
+                }
+                catch (Exception e)
+                {
+                    if (!stopped) LoggerFactory.getLogger(MusicPlayer.class).warn("Couldn't play " + (download != null ? download.getPart() : tempPlayFile), e);
+                }
+                done = true;
+                if (!stopped) notifyListener(false);
+            }
+
+            private void notifyListener(boolean looped)
+            {
+                Listener l = listener;
+                if (l == null || stopped) return;
+                if (looped) l.looped(StreamingPlayer.this);
+                else l.ended(StreamingPlayer.this);
+            }
+
+            /**
+             * Scales the 16 bit samples, the lines' gain controls aren't available everywhere
+             */
+            private void applyVolume(byte[] buffer, int length)
+            {
+                double vol = volume;
+                if (vol >= 1) return;
+
+                int scale = (int) (vol * 65536);
+                for (int i = 0; i + 1 < length; i += 2)
+                {
+                    int sample = (short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
+                    sample = sample * scale >> 16;
+                    buffer[i] = (byte) sample;
+                    buffer[i + 1] = (byte) (sample >> 8);
+                }
+            }
+        }
+    }
+
+    class OggPlayer extends StreamingPlayer
+    {
+        private OggPlayer(URI media)
+        {
+            super(media, ".ogg");
+        }
+
+        private OggPlayer(GrowingFile download)
+        {
+            super(download);
+        }
+
+        @Override
+        protected PcmStream open(SeekableByteChannel media) throws IOException
+        {
+            return new VorbisPcmStream(media);
+        }
+    }
+
+    class FlacPlayer extends StreamingPlayer
+    {
+        private FlacPlayer(URI media)
+        {
+            super(media, ".flac");
+        }
+
+        private FlacPlayer(GrowingFile download)
+        {
+            super(download);
+        }
+
+        @Override
+        protected PcmStream open(SeekableByteChannel media) throws IOException
+        {
+            return new FlacPcmStream(media);
+        }
+    }
 }
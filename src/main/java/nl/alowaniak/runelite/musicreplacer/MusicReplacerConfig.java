@@ -1,8 +1,11 @@
 package nl.alowaniak.runelite.musicreplacer;
 
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import net.runelite.client.config.Config;
 import net.runelite.client.config.ConfigGroup;
 import net.runelite.client.config.ConfigItem;
+import net.runelite.client.config.Range;
 
 import static nl.alowaniak.runelite.musicreplacer.MusicReplacerConfig.CONFIG_GROUP;
 
@@ -30,4 +33,96 @@ public interface MusicReplacerConfig extends Config
 	{
 		return false;
 	}
+
+	@ConfigItem(
+			keyName = "downloadPresetsOnPlay",
+			name = "Download presets on play",
+			description = "When on choosing a preset only registers its tracks, each is downloaded the first time it plays.<br>" +
+					"The normal track plays until the download is done."
+	)
+	default boolean downloadPresetsOnPlay()
+	{
+		return false;
+	}
+
+	@Range(min = 1, max = 16)
+	@ConfigItem(
+			keyName = "downloadConcurrency",
+			name = "Parallel downloads",
+			description = "How many tracks a bulk override (e.g. a preset) downloads at the same time."
+	)
+	default int downloadConcurrency()
+	{
+		return 6;
+	}
+
+	@Range(min = 1, max = 16)
+	@ConfigItem(
+			keyName = "downloadsPerHost",
+			name = "Parallel downloads per host",
+			description = "How many of the parallel downloads may go to the same server."
+	)
+	default int downloadsPerHost()
+	{
+		return 4;
+	}
+
+	@ConfigItem(
+			keyName = "downloadFormat",
+			name = "Download format",
+			description = "Which format to download (youtube) overrides in.<br>" +
+					"OGG (Vorbis) is smaller for the same quality and already plays while downloading, " +
+					"already downloaded overrides stay as they are."
+	)
+	default DownloadFormat downloadFormat()
+	{
+		return DownloadFormat.OGG;
+	}
+
+	@Range(min = 256, max = 16384)
+	@ConfigItem(
+			keyName = "minAudioBufferFrames",
+			name = "Min audio buffer (frames)",
+			description = "How much audio (in 1/44100ths of a second) wav overrides process at once and keep queued at least.<br>" +
+					"Lower starts sounds sooner, takes effect from the next track."
+	)
+	default int minAudioBufferFrames()
+	{
+		return 1024;
+	}
+
+	@Range(min = 256, max = 65536)
+	@ConfigItem(
+			keyName = "maxAudioBufferFrames",
+			name = "Max audio buffer (frames)",
+			description = "Up to how much audio wav overrides queue after running out (heard as crackles, reported in chat).<br>" +
+					"Raise it if they keep crackling (e.g. under heavy load), takes effect from the next track."
+	)
+	default int maxAudioBufferFrames()
+	{
+		return 8192;
+	}
+
+	@Range(min = 0)
+	@ConfigItem(
+			keyName = "diskBudgetMb",
+			name = "Disk budget (MB)",
+			description = "How much disk the overrides may take, 0 for no limit.<br>" +
+					"Downloaded overrides that played least recently are deleted to stay within it, and downloaded again when they play.<br>" +
+					"Overrides with local files are never deleted (but do count)."
+	)
+	default int diskBudgetMb()
+	{
+		return 0;
+	}
+
+	@Getter
+	@RequiredArgsConstructor
+	enum DownloadFormat
+	{
+		MP3(".mp3"),
+		OGG(".ogg");
+
+		private final String ext;
+	}
 }
@@ -12,6 +12,7 @@ import net.runelite.api.GameState;
 import net.runelite.api.events.BeforeRender;
 import net.runelite.api.events.ClientTick;
 import net.runelite.api.events.GameStateChanged;
+import net.runelite.api.events.VarbitChanged;
 import net.runelite.api.gameval.InterfaceID;
 import net.runelite.api.gameval.VarPlayerID;
 import net.runelite.api.gameval.VarbitID;
@@ -21,14 +22,17 @@ import net.runelite.client.callback.ClientThread;
 import net.runelite.client.config.ConfigManager;
 import net.runelite.client.eventbus.EventBus;
 import net.runelite.client.eventbus.Subscribe;
+import net.runelite.client.events.ConfigChanged;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginDescriptor;
+import net.runelite.client.ui.overlay.OverlayManager;
 import net.runelite.client.ui.overlay.tooltip.Tooltip;
 import net.runelite.client.ui.overlay.tooltip.TooltipManager;
 
 import javax.inject.Inject;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
@@ -54,17 +58,27 @@ public class MusicReplacerPlugin extends Plugin
 
 	public static final String MUSIC_REPLACER_API = "https://alowan.nl/runelite-music-replacer/";
 	public static final String MUSIC_REPLACER_EXECUTOR = "musicReplacerExecutor";
+	/**
+	 * Name of the bound base url of the API, {@link #MUSIC_REPLACER_API} unless something else (e.g. a test) binds it
+	 */
+	public static final String MUSIC_REPLACER_API_URL = "musicReplacerApiUrl";
 
 	/**
 	 * The max the volume sliders ({@link VarPlayerID#OPTION_MASTER_VOLUME}, {@link VarPlayerID#OPTION_MUSIC}) can be
 	 */
 	private static final double MAX_VOL_OPTION = 100;
 
+	/**
+	 * At most this often the underruns of the {@link #player} are reported in chat, so a crackling track doesn't flood it
+	 */
+	private static final Duration UNDERRUN_REPORT_INTERVAL = Duration.ofSeconds(30);
+
 	@Override
 	public void configure(Binder binder)
 	{
 		// Use our own ExecutorService instead of ScheduledExecutorService because the downloads can take a while
 		binder.bind(ExecutorService.class).annotatedWith(Names.named(MUSIC_REPLACER_EXECUTOR)).toInstance(Executors.newSingleThreadExecutor());
+		binder.bind(String.class).annotatedWith(Names.named(MUSIC_REPLACER_API_URL)).toInstance(MUSIC_REPLACER_API);
 	}
 
 	@Inject
@@ -80,14 +94,46 @@ public class MusicReplacerPlugin extends Plugin
 	private Tracks tracks;
 	@Inject
 	private TracksOverridesUi tracksOverridesUi;
+	@Inject
+	private OverlayManager overlayManager;
+	@Inject
+	private BulkProgressOverlay bulkProgressOverlay;
 
 	@Inject
 	private MusicReplacerConfig config;
 
 	private MusicPlayer player;
+	private boolean playerLooping;
+	private boolean playerEnded;
+	private final MusicPlayer.Listener playerListener = new MusicPlayer.Listener()
+	{
+		@Override
+		public void ended(MusicPlayer endedPlayer)
+		{
+			clientThread.invoke(() -> onPlayerEnded(endedPlayer));
+		}
+	};
 	private String actualCurTrack;
 	private boolean restoreActualCurTrack;
 	private TrackOverride trackToPlay;
+	/**
+	 * The download {@link #player} plays while it's still coming in
+	 */
+	private GrowingFile streaming;
+	/**
+	 * The track shown as playing, to tell when it changes
+	 */
+	private String shownTrack;
+	/**
+	 * Whether to see if there's a download of {@link #shownTrack} to stream, only when that changed or a download of
+	 * it became playable (see {@link #downloadPlayable})
+	 */
+	private boolean checkDownload;
+	/**
+	 * The underruns of {@link #player} reported so far, and when that was (in millis)
+	 */
+	private long reportedUnderruns;
+	private long underrunsReportedAt;
 
 	private double fading;
 
@@ -95,6 +141,9 @@ public class MusicReplacerPlugin extends Plugin
 	protected void startUp()
 	{
 		eventBus.register(tracksOverridesUi);
+		overlayManager.add(bulkProgressOverlay);
+		tracks.resumeBulkJobs();
+		tracks.checkDiskBudget();
 	}
 
 	@Provides
@@ -112,6 +161,55 @@ public class MusicReplacerPlugin extends Plugin
 		}
 	}
 
+	@Subscribe
+	public void onConfigChanged(ConfigChanged configChanged)
+	{
+		if (MusicReplacerConfig.CONFIG_GROUP.equals(configChanged.getGroup()) && "diskBudgetMb".equals(configChanged.getKey()))
+		{
+			tracks.checkDiskBudget();
+		}
+	}
+
+	@Subscribe
+	public void onVarbitChanged(VarbitChanged varbitChanged)
+	{
+		if (varbitChanged.getVarbitId() == VarbitID.MUSIC_ENABLELOOP)
+		{
+			updateLooping();
+		}
+	}
+
+	/**
+	 * Looping is done by the player itself so it's gapless.
+	 * But don't loop an override that is only being played to its end, the up next track should come after it.
+	 */
+	private void updateLooping()
+	{
+		boolean loop = client.getVarbitValue(VarbitID.MUSIC_ENABLELOOP) == 1 && !isActualTrackBeingOverruled();
+		if (player != null && loop != playerLooping)
+		{
+			player.setLooping(loop);
+			playerLooping = loop;
+		}
+	}
+
+	/**
+	 * Only remember it ended, the next client tick decides what to do with it (the player might've ended before the
+	 * actual track got overruled).
+	 */
+	private void onPlayerEnded(MusicPlayer endedPlayer)
+	{
+		if (endedPlayer == player)
+		{
+			playerEnded = true;
+		}
+	}
+
+	private boolean isActualTrackBeingOverruled()
+	{
+		return config.playOverridesToEnd() && actualCurTrack != null && trackToPlay != null && !actualCurTrack.equals(trackToPlay.getName());
+	}
+
 	/**
 	 * Tooltips need to be added before each render, so we clear it on client tick and gets added on mouse listener
 	 */
@@ -128,6 +226,7 @@ public class MusicReplacerPlugin extends Plugin
 	{
 		upNextTooltip = null;
 		applyVolume(); // Always make sure we're on the right volume/fade
+		reportUnderruns();
 
 		Widget curTrackWidget = client.getWidget(InterfaceID.Music.NOW_PLAYING_TEXT);
 		Widget playingWidget = client.getWidget(InterfaceID.Music.NOW_PLAYING_TITLE);
@@ -147,19 +246,45 @@ public class MusicReplacerPlugin extends Plugin
 		{
 			// curTrack is a new one, so keep track of actual playing track and change widget
 			actualCurTrack = curTrack;
+			tracks.fetchIfMissing(actualCurTrack); // It's up next, no need to wait for it once it's its turn
 			playingWidget.setFontId(OVERRIDE_FONT);
 			Tooltip tooltip = new Tooltip("Up next: " + actualCurTrack);
 			playingWidget.setOnMouseRepeatListener((JavaScriptCallback) e -> upNextTooltip = tooltip);
 			playingWidget.setOnClickListener((JavaScriptCallback) e -> restoreActualCurTrack = true);
 			playingWidget.setHasListener(true);
 			curTrackWidget.setText(curTrack = trackToPlay.getName());
+			updateLooping();
+		}
+
+		if (!curTrack.equals(shownTrack))
+		{
+			shownTrack = curTrack;
+			checkDownload = true;
 		}
 
 		TrackOverride newTrack = tracks.getOverride(curTrack);
 		if (!Objects.equals(trackToPlay, newTrack))
 		{
 			trackToPlay = newTrack;
-			if (fading <= 0) fading = 1;
+			if (streaming != null && newTrack != null && newTrack.getPaths().anyMatch(streaming.getTarget()::equals))
+			{
+				// What we're streaming got committed, just keep playing it
+				streaming = null;
+			}
+			else if (fading <= 0) fading = 1;
+		}
+		else if (fading <= 0 && streaming == null && checkDownload)
+		{
+			checkDownload = false;
+			GrowingFile download = tracks.playableDownloadOf(curTrack);
+			if (download != null) startStreaming(download);
+		}
+
+		if (streaming != null && streaming.isFailed())
+		{
+			stopPlaying();
+			// Back to the override we had, if any (otherwise the normal track plays)
+			if (trackToPlay != null && trackToPlay.getPaths().anyMatch(Files::exists)) stopCurrentAndStartNew();
 		}
 
 
@@ -173,16 +298,14 @@ public class MusicReplacerPlugin extends Plugin
 		else if (player != null)
 		{
 			double volume = getEffectiveVolume();
-			boolean actualTrackIsBeingOverruled = config.playOverridesToEnd() && actualCurTrack != null && trackToPlay != null && !actualCurTrack.equals(trackToPlay.getName());
-			if (actualTrackIsBeingOverruled && (volume <= 0 || !player.isPlaying()))
+			if (isActualTrackBeingOverruled() && (volume <= 0 || playerEnded))
 			{
 				restoreActualCurTrack = true;
 			}
-			else if ((oldVolume <= 0 && volume > 0) || (!player.isPlaying() && client.getVarbitValue(VarbitID.MUSIC_ENABLELOOP) == 1))
+			else if (oldVolume <= 0 && volume > 0)
 			{
-				// Restart play if
-				// we switched from muted to on (mimic osrs behavior)
-				// or we ended and have loop enabled
+				// Restart play if we switched from muted to on (mimic osrs behavior)
+				playerEnded = false;
 				player.play();
 			}
 			oldVolume = volume;
@@ -199,11 +322,20 @@ public class MusicReplacerPlugin extends Plugin
 				player = trackToPlay.getPaths()
 						.filter(Files::exists)
 						.map(Path::toUri)
-						.map(MusicPlayer::create)
+						.map(media -> MusicPlayer.create(media, config))
 						.filter(Objects::nonNull)
 						.findFirst()
 						.orElse(null);
-				if (player != null) player.play();
+				if (player != null)
+				{
+					tracks.played(trackToPlay);
+					startPlayer();
+				}
+				else if (!trackToPlay.isFromLocal() && trackToPlay.getPaths().noneMatch(Files::exists))
+				{
+					// Not downloaded (yet), the normal track plays until it's there and getOverride gives it with media
+					tracks.fetchIfMissing(trackToPlay.getName());
+				}
 				else {
 					chatMsg("Deleting " + trackToPlay + " override because no player could be made (no file or wrong format?).");
 					tracks.removeOverride(trackToPlay.getName());
@@ -217,6 +349,48 @@ public class MusicReplacerPlugin extends Plugin
 		}
 	}
 
+	/**
+	 * Plays the download of the current track's (upcoming) override while it's still coming in, so it doesn't have to
+	 * be waited for. It's just kept playing once it's committed.
+	 */
+	private void startStreaming(GrowingFile download)
+	{
+		stopPlaying();
+		player = MusicPlayer.createProgressive(download);
+		if (player == null) return;
+
+		streaming = download;
+		startPlayer();
+	}
+
+	private void startPlayer()
+	{
+		playerLooping = false;
+		playerEnded = false;
+		reportedUnderruns = 0;
+		underrunsReportedAt = 0;
+		player.setListener(playerListener);
+		updateLooping();
+		player.play();
+	}
+
+	/**
+	 * Tells when the player ran out of audio (heard as crackles) since it was last told, so it's clear when raising the
+	 * audio buffer setting could help.
+	 */
+	private void reportUnderruns()
+	{
+		if (player == null) return;
+		long underruns = player.getUnderrunCount();
+		long now = System.currentTimeMillis();
+		if (underruns <= reportedUnderruns || now - underrunsReportedAt < UNDERRUN_REPORT_INTERVAL.toMillis()) return;
+
+		log.info((underruns - reportedUnderruns) + " audio underruns playing " + trackToPlay + ", " + underruns + " in total, now buffering " + player.getBufferFrames() + " frames");
+		chatMsg("The override ran out of audio " + underruns + " times so far (buffering " + player.getBufferFrames() + " frames now), raise the max audio buffer setting if it keeps crackling.");
+		reportedUnderruns = underruns;
+		underrunsReportedAt = now;
+	}
+
 	private void applyVolume()
 	{
 		// Applying volume is only needed for our own player (osrs obviously handles its own volume)
@@ -253,6 +427,7 @@ public class MusicReplacerPlugin extends Plugin
 	public void stopPlaying()
 	{
 		fading = 0;
+		streaming = null;
 		if (player != null)
 		{
 			player.close();
@@ -264,7 +439,10 @@ public class MusicReplacerPlugin extends Plugin
 	protected void shutDown()
 	{
 		eventBus.unregister(tracksOverridesUi);
+		overlayManager.remove(bulkProgressOverlay);
 		tracksOverridesUi.shutdown();
+		// They're resumed when it's turned on again
+		tracks.shutDown();
 		trackToPlay = null;
 		stopPlaying();
 		clientThread.invoke(() ->
@@ -281,6 +459,17 @@ public class MusicReplacerPlugin extends Plugin
 		});
 	}
 
+	/**
+	 * A download of {@code track}'s override came in far enough to play it, called from the thread downloading it.
+	 */
+	void downloadPlayable(String track)
+	{
+		clientThread.invoke(() ->
+		{
+			if (track.equals(shownTrack)) checkDownload = true;
+		});
+	}
+
 	public void chatMsg(String... msgs) {
 		clientThread.invoke(() -> Arrays.stream(msgs).forEach(msg -> client.addChatMessage(ChatMessageType.GAMEMESSAGE, "", msg, null)));
 	}
@@ -0,0 +1,28 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Decoded audio of a file, read bit by bit by a {@link MusicPlayer.StreamingPlayer}.
+ */
+interface PcmStream extends Closeable
+{
+	/**
+	 * @return signed little endian PCM format of what {@link #read} gives
+	 */
+	AudioFormat getFormat();
+
+	/**
+	 * Reads (whole frames of) decoded audio.
+	 *
+	 * @return the number of bytes read, or -1 at the end
+	 */
+	int read(byte[] buffer, int offset, int length) throws IOException;
+
+	/**
+	 * Continue reading from the start again.
+	 */
+	void rewind() throws IOException;
+}
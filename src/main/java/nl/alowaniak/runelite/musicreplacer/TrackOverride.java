@@ -6,6 +6,7 @@ import java.util.Map;
 import java.util.stream.Stream;
 
 import lombok.Value;
+import lombok.With;
 
 /*
  * Ideally this class is refactored a bunch.
@@ -26,6 +27,16 @@ class TrackOverride
 	String originalPath;
 	boolean fromLocal;
 	Map<String, String> additionalInfo;
+	/**
+	 * The {@link BlobStore} media this override plays, {@code null} for overrides from before there was a blob store
+	 */
+	@With
+	String blob;
+	/**
+	 * What the media turned out to be when it was verified after transferring, {@code null} for older overrides
+	 */
+	@With
+	MediaInfo media;
 
 	public String fileSystemNormalizedName()
 	{
@@ -36,12 +47,13 @@ class TrackOverride
 	}
 
 	/**
-	 * Multiple possibilities because extension is unknown.
+	 * Multiple possibilities because extension is unknown (unless it's a blob).
 	 *
 	 * @return the possible paths of the overridden tracks in most favouring first.
 	 */
 	public Stream<Path> getPaths()
 	{
+		if (blob != null) return Stream.of(BlobStore.pathOf(blob));
 		return MusicPlayer.PLAYER_PER_EXT.keySet().stream().map(e -> Tracks.MUSIC_OVERRIDES_DIR.toPath().resolve(fileSystemNormalizedName() + e));
 	}
 }
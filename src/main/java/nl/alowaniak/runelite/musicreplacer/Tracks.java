@@ -1,6 +1,10 @@
 package nl.alowaniak.runelite.musicreplacer;
 
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
@@ -15,24 +19,28 @@ import javax.inject.Named;
 import javax.inject.Singleton;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static net.runelite.http.api.RuneLiteAPI.GSON;
 import static nl.alowaniak.runelite.musicreplacer.MusicReplacerConfig.CONFIG_GROUP;
-import static nl.alowaniak.runelite.musicreplacer.MusicReplacerPlugin.MUSIC_REPLACER_API;
 
 /**
  * Provides access to all OSRS track names as well as all {@link TrackOverride overridden tracks}.
@@ -52,6 +60,11 @@ class Tracks
 	public static final String OVERRIDE_CONFIG_KEY_PREFIX = "track_";
 	public static final String FULL_OVERRIDE_CONFIG_KEY_PREFIX = CONFIG_GROUP + '.' + OVERRIDE_CONFIG_KEY_PREFIX;
 
+	/**
+	 * About 10 seconds of a 128 kbps download, enough to start playing it without stuttering right away
+	 */
+	private static final long PROGRESSIVE_START_BYTES = 160 * 1024;
+
 	@Inject
 	private ConfigManager configMgr;
 	@Inject
@@ -61,6 +74,39 @@ class Tracks
 	@Inject
 	@Named(MusicReplacerPlugin.MUSIC_REPLACER_EXECUTOR)
 	private ExecutorService executor;
+	@Inject
+	private DownloadPool downloads;
+	@Inject
+	private BulkJournal journal;
+	@Inject
+	private Downloader downloader;
+	@Inject
+	private BlobStore blobs;
+	@Inject
+	private BulkProgress progress;
+	@Inject
+	private ApiCircuitBreaker breaker;
+	@Inject
+	@Named(MusicReplacerPlugin.MUSIC_REPLACER_API_URL)
+	private String api;
+
+	@Getter(value = AccessLevel.PRIVATE, lazy = true)
+	private final String apiHost = URI.create(api).getHost();
+
+	/**
+	 * Downloads in progress that can be played before they're done, per track
+	 */
+	private final Map<String, GrowingFile> downloading = new ConcurrentHashMap<>();
+	/**
+	 * Per job id
+	 */
+	private final Map<String, Bulk> bulks = new ConcurrentHashMap<>();
+	/**
+	 * How many overrides refer to each blob, kept up to date along with the overrides so releasing one doesn't have to
+	 * read them all
+	 */
+	@Getter(value = AccessLevel.PRIVATE, lazy = true)
+	private final Multiset<String> blobRefs = countBlobRefs();
 
 	/**
 	 * @return whether or not given {@code name} exists as a {@link TrackOverride}
@@ -80,25 +126,28 @@ class Tracks
 
 	/**
 	 * Bulk creates overrides assuming {@code dir} contains audio files with exact same names as tracks
+	 *
+	 * @return the bulk, to pause or cancel it
 	 */
-	public void bulkCreateOverride(Path dirPath)
+	public Bulk bulkCreateOverride(Path dirPath)
 	{
 		@Value class PathAndFilename {
 			Path path;
 			@Getter(lazy = true) String filename = path.getFileName().toString().replaceAll("\\..+$", "");
 		}
+		BulkJournal.Job job = new BulkJournal.Job(dirPath.toString(), null, true);
+		Bulk bulk = new Bulk(job);
 		executor.submit(() ->
 		{
-			musicReplacer.chatMsg("Overriding with tracks in " + dirPath + ".");
 			try (Stream<Path> ls = Files.list(dirPath))
 			{
 				ls.map(e -> new PathAndFilename(e))
 						// Ideally we filtered only files with an osrs track name, but music track enum is removed, let place responsibility on user
 						.forEach(e -> {
 							if (!config.skipAlreadyOverriddenWhenBulkOverride() || !overrideExists(e.getFilename())) {
-								createOverride(e.getFilename(), e.getPath());
+								job.getTracks().put(e.getFilename(), BulkJournal.Track.local(e.getPath()));
 							} else {
-								musicReplacer.chatMsg("Skipping " + e.getFilename() + ", already overridden.");
+								job.setSkipped(job.getSkipped() + 1);
 							}
 						});
 			}
@@ -106,93 +155,595 @@ class Tracks
 			{
 				log.warn("Error opening `" + dirPath + "` for bulk override.", e);
 			}
-			musicReplacer.chatMsg("Done overriding.");
+			journal.start(job);
+			runDirectoryJob(bulk);
 		});
+		return bulk;
+	}
+
+	/**
+	 * Runs on our executor, copying the pending tracks one by one.
+	 */
+	private void runDirectoryJob(Bulk bulk)
+	{
+		musicReplacer.chatMsg("Overriding with tracks in " + bulk.job.getName() + ".");
+		bulks.put(bulk.job.getId(), bulk);
+		progress.started(bulk.job);
+		continueDirectoryJob(bulk);
+	}
+
+	/**
+	 * Runs on our executor, stops early if {@code bulk} got paused ({@link Bulk#resume()} calls it again) or cancelled.
+	 */
+	private void continueDirectoryJob(Bulk bulk)
+	{
+		BulkJournal.Job job = bulk.job;
+		for (Map.Entry<String, BulkJournal.Track> track : job.pending().entrySet())
+		{
+			if (!bulk.proceed()) return;
+			String name = track.getKey();
+			journal.mark(job, name,
+					commitOverride(new TrackOverride(name, track.getValue().getPath(), true, ImmutableMap.of(), null, null), false));
+		}
+		bulk.finished();
+		musicReplacer.chatMsg("Done overriding, " + summaryOf(job) + ".");
+	}
+
+	/**
+	 * Resumes (in the background) the bulk overrides that didn't finish last time RL was running.
+	 */
+	public void resumeBulkJobs()
+	{
+		executor.submit(() -> journal.takeUnfinished().forEach(job ->
+		{
+			if (job.isDirectory())
+			{
+				runDirectoryJob(new Bulk(job));
+			}
+			else
+			{
+				musicReplacer.chatMsg("Resuming preset " + job.getName() + ", " + job.pending().size() + " tracks left.");
+				runPresetJob(running(job));
+			}
+		}));
 	}
 
     public void createOverride(String name, Path path)
 	{
-		createOverride(new TrackOverride(name, path.toString(), true, ImmutableMap.of()));
+		// Hashes, copies and verifies the whole file, so not on the calling (Swing) thread
+		executor.submit(() -> commitOverride(new TrackOverride(name, path.toString(), true, ImmutableMap.of(), null, null), true));
 	}
 
-	public void bulkCreateOverride(Preset preset) {
+	/**
+	 * Downloads the preset tracks in parallel on the {@link DownloadPool}, tracks sharing a download share the transfer.
+	 * Unless {@link MusicReplacerConfig#downloadPresetsOnPlay()}, then the tracks are only registered.
+	 *
+	 * @return the bulk, to pause or cancel it, {@code null} if there's nothing to download
+	 */
+	public Bulk bulkCreateOverride(Preset preset) {
+		if (config.downloadPresetsOnPlay()) {
+			executor.submit(() -> registerPreset(preset));
+			return null;
+		}
+
 		musicReplacer.chatMsg(
-				"Downloading " + preset.getTracks().size() + " tracks, won't dl all if RL closes prematurely.",
+				"Downloading " + preset.getTracks().size() + " tracks, will continue next time if RL closes prematurely.",
 				preset.getCredits()
 		);
-		preset.getTracks().forEach((name, override) -> {
+		BulkJournal.Job job = new BulkJournal.Job(preset.getName(), preset.getCredits(), false);
+		preset.getTracks().forEach((name, hit) -> {
 			if (!config.skipAlreadyOverriddenWhenBulkOverride() || !overrideExists(name)) {
-				createOverride(name, override);
+				job.getTracks().put(name, BulkJournal.Track.remote(hit));
 			} else {
-				musicReplacer.chatMsg("Skipping " + name + ", already overridden.");
+				job.setSkipped(job.getSkipped() + 1);
 			}
 		});
-		executor.submit(() -> musicReplacer.chatMsg("Finished downloading preset " + preset.getName() + ".", preset.getCredits()));
+		if (job.getTracks().isEmpty()) {
+			musicReplacer.chatMsg("Finished downloading preset " + job.getName() + ", " + summaryOf(job) + ".", job.getCredits());
+			return null;
+		}
+		// Already running to the UI, so it can be paused or cancelled before our executor gets to it
+		Bulk bulk = running(job);
+		executor.submit(() ->
+		{
+			journal.start(job);
+			runPresetJob(bulk);
+		});
+		return bulk;
+	}
+
+	/**
+	 * Registers the preset tracks as overrides without their media, which {@link #fetchIfMissing} gets once needed.
+	 */
+	private void registerPreset(Preset preset)
+	{
+		int registered = 0, skipped = 0;
+		for (Map.Entry<String, SearchResult> track : preset.getTracks().entrySet())
+		{
+			String name = track.getKey();
+			if (config.skipAlreadyOverriddenWhenBulkOverride() && overrideExists(name))
+			{
+				skipped++;
+				continue;
+			}
+
+			TrackOverride override = remoteOverride(name, track.getValue());
+			TrackOverride previous = writeOverride(override.withBlob(remoteBlobOf(override)));
+			if (previous != null) release(previous);
+			registered++;
+		}
+		musicReplacer.chatMsg(
+				"Overridden " + registered + " tracks with preset " + preset.getName() + ", each is downloaded the first time it plays"
+						+ (skipped == 0 ? "." : ", " + skipped + " skipped (already overridden)."),
+				preset.getCredits()
+		);
+	}
+
+	/**
+	 * Fetches the media of {@code name}'s override in the background if it's a remote one without it, i.e. registered
+	 * by {@link #registerPreset} and not played yet (or its blob went missing). Once committed {@link #getOverride}
+	 * returns the override with its media.
+	 */
+	public void fetchIfMissing(String name)
+	{
+		TrackOverride override = readOverride(name);
+		if (override == null || override.isFromLocal() || override.getPaths().anyMatch(Files::exists)) return;
+
+		DownloadPool.Download<Transferred> download = blobs.transferOnce(remoteBlobOf(override),
+				() -> downloads.submit(getApiHost(), name, () -> transfer(override)));
+		download.result().exceptionally(e -> null).thenAcceptAsync(transferred -> {
+			if (transferred == null) log.warn("Couldn't get " + override + ", the normal track plays instead.");
+			// It could've been removed or overridden with something else while downloading
+			else if (override.equals(readOverride(name))) commitOverride(override, transferred, false);
+		}, executor);
+	}
+
+	private Bulk running(BulkJournal.Job job)
+	{
+		Bulk bulk = new Bulk(job);
+		bulks.put(job.getId(), bulk);
+		progress.started(job);
+		return bulk;
+	}
+
+	/**
+	 * Runs on our executor, commits in the order the {@link DownloadPool} starts the downloads, so a track it
+	 * prioritised isn't held up by the rest of the preset.
+	 */
+	private void runPresetJob(Bulk bulk)
+	{
+		BulkJournal.Job job = bulk.job;
+		if (bulk.isCancelled()) return;
+		job.pending().forEach((name, track) -> {
+			TrackOverride override = remoteOverride(name, track.getHit());
+			DownloadPool.Download<Transferred> download = blobs.transferOnce(remoteBlobOf(override),
+					() -> downloads.submit(getApiHost(), name, () -> transfer(override)));
+			bulk.transferring(download);
+			download.started().thenRun(() -> bulk.thenCommit(override, download.result(), success -> {
+				if (journal.mark(job, name, success)) {
+					bulk.finished();
+					musicReplacer.chatMsg("Finished downloading preset " + job.getName() + ", " + summaryOf(job) + ".", job.getCredits());
+				}
+			}));
+		});
+	}
+
+	/**
+	 * @return the bulk overrides that are running (paused ones included)
+	 */
+	public List<Bulk> runningBulks()
+	{
+		return new ArrayList<>(bulks.values());
+	}
+
+	/**
+	 * Stops the running bulks (the plugin is turned off) while the journal keeps what's left of them for
+	 * {@link #resumeBulkJobs}, and stops all downloads.
+	 */
+	public void shutDown()
+	{
+		runningBulks().forEach(Bulk::stop);
+		downloads.shutDown();
+	}
+
+	/**
+	 * A running bulk override, which can be paused and cancelled.
+	 * <p>
+	 * Pausing a preset holds back its downloads that didn't start yet, pausing a directory stops after the track being
+	 * copied. Cancelling also aborts the downloads in progress and deletes what they got so far, what's committed by
+	 * then stays. A download shared with another bulk or override only pauses or aborts once all its owners did.
+	 */
+	public class Bulk
+	{
+		private final BulkJournal.Job job;
+		private final List<DownloadPool.Download<Transferred>> transfers = new ArrayList<>();
+		/**
+		 * The commits of a preset so far, in the order its downloads started
+		 */
+		private CompletableFuture<?> committed = CompletableFuture.completedFuture(null);
+		private boolean paused;
+		private boolean cancelled;
+		/**
+		 * Whether it got cancelled to be resumed later
+		 */
+		private boolean stopped;
+		private boolean done;
+		/**
+		 * Whether a directory stopped going through its tracks because it got paused
+		 */
+		private boolean parked;
+
+		private Bulk(BulkJournal.Job job)
+		{
+			this.job = job;
+		}
+
+		public synchronized boolean isPaused()
+		{
+			return paused;
+		}
+
+		public void pause()
+		{
+			List<DownloadPool.Download<Transferred>> held;
+			synchronized (this)
+			{
+				if (paused || cancelled || done) return;
+				paused = true;
+				held = new ArrayList<>(transfers);
+			}
+			held.forEach(downloads::hold);
+			progress.paused(job, true);
+			musicReplacer.chatMsg("Paused overriding with " + job.getName() + ".");
+		}
+
+		public void resume()
+		{
+			List<DownloadPool.Download<Transferred>> held;
+			boolean wasParked;
+			synchronized (this)
+			{
+				if (!paused || cancelled || done) return;
+				paused = false;
+				wasParked = parked;
+				parked = false;
+				held = new ArrayList<>(transfers);
+			}
+			progress.paused(job, false);
+			musicReplacer.chatMsg("Resumed overriding with " + job.getName() + ".");
+			held.forEach(downloads::release);
+			if (wasParked) executor.submit(() -> continueDirectoryJob(this));
+		}
+
+		public void cancel()
+		{
+			List<DownloadPool.Download<Transferred>> cancelling;
+			boolean wasParked;
+			boolean wasPaused;
+			synchronized (this)
+			{
+				if (cancelled || done) return;
+				cancelled = true;
+				wasParked = parked;
+				wasPaused = paused;
+				cancelling = new ArrayList<>(transfers);
+			}
+			if (job.isDirectory())
+			{
+				// Otherwise the loop notices when it gets to the next track
+				if (wasParked) executor.submit(this::cancelled);
+				return;
+			}
+
+			dropTransfers(cancelling, wasPaused);
+			// Only the downloads that were already going still get to the commits (which skip them), after that it's over
+			CompletableFuture<?> last;
+			synchronized (this)
+			{
+				last = committed;
+			}
+			last.whenCompleteAsync((ignored, e) -> cancelled(), executor);
+		}
+
+		/**
+		 * Like {@link #cancel}, but what's pending stays in the journal to be resumed next session (its commits are
+		 * skipped, so the tracks that were downloading remain pending).
+		 */
+		private void stop()
+		{
+			List<DownloadPool.Download<Transferred>> stopping;
+			boolean wasPaused;
+			synchronized (this)
+			{
+				if (cancelled || done) return;
+				cancelled = true;
+				stopped = true;
+				wasPaused = paused;
+				stopping = new ArrayList<>(transfers);
+			}
+			// A directory stops by itself at its next track
+			dropTransfers(stopping, wasPaused);
+			finished();
+			journal.putBack(job);
+		}
+
+		/**
+		 * Cancels our share of {@code dropping}, an owner that didn't cancel (e.g. an override of the same video) keeps
+		 * its download going.
+		 */
+		private void dropTransfers(List<DownloadPool.Download<Transferred>> dropping, boolean held)
+		{
+			// Cancelled before released, so a download that's only ours doesn't get to start in between
+			dropping.forEach(downloads::cancel);
+			if (held) dropping.forEach(downloads::release);
+		}
+
+		private void transferring(DownloadPool.Download<Transferred> download)
+		{
+			boolean hold;
+			boolean drop;
+			synchronized (this)
+			{
+				transfers.add(download);
+				hold = paused;
+				drop = cancelled;
+			}
+			// Not while locked, the pool calls into us (when a download starts) while it's locked
+			if (drop) downloads.cancel(download);
+			else if (hold) downloads.hold(download);
+		}
+
+		/**
+		 * Commits {@code override} after the ones before it, unless cancelled by then.
+		 */
+		private synchronized void thenCommit(TrackOverride override, CompletableFuture<Transferred> transferred, Consumer<Boolean> marked)
+		{
+			committed = committed.thenCombineAsync(transferred.exceptionally(e -> null), (ignored, result) -> {
+				if (isCancelled())
+				{
+					// It's not going to be used, unless another override already did
+					if (result != null) release(override.withBlob(result.getBlob().getFileName().toString()));
+				}
+				else
+				{
+					marked.accept(commitOverride(override, result, false));
+				}
+				return null;
+			}, executor);
+		}
+
+		private synchronized boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		/**
+		 * @return whether a directory should go on with its next track, it cleans up itself if cancelled (not if stopped)
+		 */
+		private boolean proceed()
+		{
+			synchronized (this)
+			{
+				if (!cancelled)
+				{
+					if (!paused) return true;
+					parked = true;
+					return false;
+				}
+				if (stopped) return false;
+			}
+			cancelled();
+			return false;
+		}
+
+		private void finished()
+		{
+			synchronized (this)
+			{
+				done = true;
+			}
+			bulks.remove(job.getId());
+			progress.finished(job);
+		}
+
+		/**
+		 * Runs on our executor once nothing of the bulk is going on anymore.
+		 */
+		private void cancelled()
+		{
+			finished();
+			journal.drop(job);
+			if (!job.isDirectory())
+			{
+				// The downloads that were going deleted their own, these are from when an earlier session got them halfway
+				job.pending().values().forEach(track -> blobs.discardPart(BlobStore.remoteBlob(track.getHit().getId(), config.downloadFormat().getExt())));
+			}
+			musicReplacer.chatMsg("Cancelled overriding with " + job.getName() + ", " + summaryOf(job) + ".");
+		}
+	}
+
+	private static String summaryOf(BulkJournal.Job job)
+	{
+		long failed = job.failed();
+		long overridden = job.getTracks().size() - job.pending().size() - failed;
+		return overridden + " overridden"
+				+ (failed == 0 ? "" : ", " + failed + " failed (check the logs)")
+				+ (job.getSkipped() == 0 ? "" : ", " + job.getSkipped() + " skipped (already overridden)");
 	}
 
 	public void createOverride(String trackName, SearchResult hit)
 	{
-		executor.submit(() -> createOverride(
-			new TrackOverride(trackName, hit.id, false,
-				ImmutableMap.of(
-				"Name", hit.getName(),
-				"Duration", Duration.ofSeconds(hit.getDuration()).toString(),
-				"Uploader", hit.getUploader()
-				)
-			)
-		));
-	}
-
-	private void createOverride(TrackOverride override)
-	{
-		Path overridePath = transfer(override);
-		if (overridePath != null)
-		{
-			// Ensure we only keep the current override transferred file
-			override.getPaths()
-					.filter(e -> !e.equals(overridePath))
-					.forEach(path -> {
-						try {
-							Files.deleteIfExists(path);
-						} catch (IOException e) {
-							log.warn("Couldn't delete " + path, e);
-						}
-					});
-
-			configMgr.setConfiguration(CONFIG_GROUP, OVERRIDE_CONFIG_KEY_PREFIX + override.getName(), GSON.toJson(override));
-			musicReplacer.chatMsg(override.isFromLocal()
+		TrackOverride override = remoteOverride(trackName, hit);
+		DownloadPool.Download<Transferred> download = blobs.transferOnce(remoteBlobOf(override),
+				() -> downloads.submitInteractive(getApiHost(), () -> transfer(override)));
+		thenCommit(CompletableFuture.completedFuture(null), override, download.result(), true);
+	}
+
+	private static TrackOverride remoteOverride(String trackName, SearchResult hit)
+	{
+		return new TrackOverride(trackName, hit.id, false,
+			ImmutableMap.of(
+			"Name", hit.getName(),
+			"Duration", Duration.ofSeconds(hit.getDuration()).toString(),
+			"Uploader", hit.getUploader()
+			),
+			null,
+			null
+		);
+	}
+
+	/**
+	 * @return the blob {@code override} has or otherwise should get (in the current {@link MusicReplacerConfig#downloadFormat()})
+	 */
+	private String remoteBlobOf(TrackOverride override)
+	{
+		return override.getBlob() != null
+				? override.getBlob()
+				: BlobStore.remoteBlob(override.getOriginalPath(), config.downloadFormat().getExt());
+	}
+
+	/**
+	 * Commits {@code override} on our executor once both {@code previous} is committed and {@code transferred} is done.
+	 * A failed transfer is committed as a failure so it doesn't hold up the ones after it.
+	 */
+	private CompletableFuture<Boolean> thenCommit(CompletableFuture<?> previous, TrackOverride override,
+												  CompletableFuture<Transferred> transferred, boolean announce)
+	{
+		return previous.thenCombineAsync(transferred.exceptionally(e -> null),
+				(ignored, path) -> commitOverride(override, path, announce), executor);
+	}
+
+	private boolean commitOverride(TrackOverride override, boolean announce)
+	{
+		return commitOverride(override, transfer(override), announce);
+	}
+
+	/**
+	 * Registers {@code override} with its {@code transferred} blob, or reports failure if that's null.
+	 *
+	 * @param announce whether to tell in chat, bulks only summarize at the end (the overlay shows their progress)
+	 * @return whether it got registered
+	 */
+	private boolean commitOverride(TrackOverride override, Transferred transferred, boolean announce)
+	{
+		if (transferred != null)
+		{
+			TrackOverride previous = writeOverride(
+					override.withBlob(transferred.getBlob().getFileName().toString()).withMedia(transferred.getMedia()));
+
+			// Ensure we only keep the current override transferred file (override itself has no blob yet, so it
+			// releases files from before the blob store that are named after the track)
+			if (previous != null) release(previous);
+			release(override);
+			// Without keeping the new one a budget smaller than it would evict it right away (and fetch it again on play)
+			enforceDiskBudget(ImmutableSet.of(transferred.getBlob().getFileName().toString()));
+
+			if (announce) musicReplacer.chatMsg(override.isFromLocal()
 							? "Overridden " + override.getName()
 							: "Overridden " + override.getName() + ", uploaded by " + override.getAdditionalInfo().get("Uploader")
 			);
+			return true;
 		} else {
-			musicReplacer.chatMsg("Failed to override " + override.getName() + ", check the logs.");
+			if (announce) musicReplacer.chatMsg("Failed to override " + override.getName() + ", check the logs.");
+			else log.warn("Failed to override " + override.getName() + " in bulk.");
+			return false;
 		}
 	}
 
+	/**
+	 * @return the override of {@code name}, a remote one might not have its media yet (see {@link #fetchIfMissing})
+	 */
 	public TrackOverride getOverride(String name)
 	{
-		TrackOverride override = GSON.fromJson(
-			configMgr.getConfiguration(CONFIG_GROUP, OVERRIDE_CONFIG_KEY_PREFIX + name),
-			TrackOverride.class
-		);
+		TrackOverride override = readOverride(name);
 
-		if (override == null || override.getPaths().anyMatch(Files::exists))
+		// A local file can't be gotten again, a remote one can
+		if (override == null || !override.isFromLocal() || override.getPaths().anyMatch(Files::exists))
 		{
 			return override;
 		}
 		else
 		{
 			log.warn("Deleting: " + override + " because there was no override file for it.");
-			configMgr.unsetConfiguration(CONFIG_GROUP, OVERRIDE_CONFIG_KEY_PREFIX + name);
+			unsetOverride(override);
 			return null;
 		}
 	}
 
+	/**
+	 * @return the download for {@code name}'s (upcoming) override if it has come in far enough to start playing it,
+	 * otherwise null
+	 */
+	public GrowingFile playableDownloadOf(String name)
+	{
+		GrowingFile download = downloading.get(name);
+		return download != null && isPlayable(download) ? download : null;
+	}
+
+	private static boolean isPlayable(GrowingFile download)
+	{
+		return download.length() >= PROGRESSIVE_START_BYTES || download.isComplete();
+	}
+
+	/**
+	 * Applies {@code change} to the download of {@code name}, telling the plugin when that made it playable (so it
+	 * doesn't have to keep asking {@link #playableDownloadOf})
+	 */
+	private void progressed(String name, GrowingFile download, Runnable change)
+	{
+		boolean wasPlayable = isPlayable(download);
+		change.run();
+		if (!wasPlayable && isPlayable(download) && downloading.get(name) == download) musicReplacer.downloadPlayable(name);
+	}
+
+	private TrackOverride readOverride(String name)
+	{
+		return GSON.fromJson(
+			configMgr.getConfiguration(CONFIG_GROUP, OVERRIDE_CONFIG_KEY_PREFIX + name),
+			TrackOverride.class
+		);
+	}
+
+	/**
+	 * Stores {@code override}, replacing the one of its track if any.
+	 *
+	 * @return the replaced override, or null if there was none
+	 */
+	private TrackOverride writeOverride(TrackOverride override)
+	{
+		// Counted before changing the overrides, the first time it counts them all
+		Multiset<String> refs = getBlobRefs();
+		TrackOverride previous = readOverride(override.getName());
+		configMgr.setConfiguration(CONFIG_GROUP, OVERRIDE_CONFIG_KEY_PREFIX + override.getName(), GSON.toJson(override));
+		if (override.getBlob() != null) refs.add(override.getBlob());
+		if (previous != null && previous.getBlob() != null) refs.remove(previous.getBlob());
+		return previous;
+	}
+
+	private void unsetOverride(TrackOverride override)
+	{
+		Multiset<String> refs = getBlobRefs();
+		configMgr.unsetConfiguration(CONFIG_GROUP, OVERRIDE_CONFIG_KEY_PREFIX + override.getName());
+		if (override.getBlob() != null) refs.remove(override.getBlob());
+	}
+
+	private Multiset<String> countBlobRefs()
+	{
+		Multiset<String> refs = ConcurrentHashMultiset.create();
+		overriddenTracks().stream()
+				.map(this::readOverride)
+				.filter(e -> e != null && e.getBlob() != null)
+				.forEach(e -> refs.add(e.getBlob()));
+		return refs;
+	}
+
 	/**
 	 * Clears all overridden tracks.
 	 */
 	public void removeAllOverrides()
 	{
+		// Otherwise they'd add overrides again after
+		runningBulks().forEach(Bulk::cancel);
 		executor.submit(() -> overriddenTracks().forEach(this::removeOverride));
 	}
 
@@ -200,31 +751,84 @@ class Tracks
 		TrackOverride override = getOverride(name);
 		if (override == null) return;
 
-		configMgr.unsetConfiguration(CONFIG_GROUP, OVERRIDE_CONFIG_KEY_PREFIX + name);
+		unsetOverride(override);
+		release(override);
+	}
+
+	/**
+	 * Marks the blob of {@code override} as just played, the least recently played downloads are evicted first.
+	 */
+	public void played(TrackOverride override)
+	{
+		if (override.getBlob() != null) executor.submit(() -> blobs.touch(override.getBlob()));
+	}
+
+	/**
+	 * Checks (in the background) whether the overrides still fit {@link MusicReplacerConfig#diskBudgetMb()}.
+	 */
+	public void checkDiskBudget()
+	{
+		executor.submit(() -> enforceDiskBudget(ImmutableSet.of()));
+	}
+
+	/**
+	 * Evicts the least recently played downloads if the overrides take more than the budget. Their overrides are kept,
+	 * {@link #fetchIfMissing} downloads them again when they play.
+	 */
+	private void enforceDiskBudget(Set<String> keep)
+	{
+		int budgetMb = config.diskBudgetMb();
+		if (budgetMb <= 0) return;
+
+		try
+		{
+			List<String> evicted = blobs.evictToFit(budgetMb * 1024L * 1024, keep);
+			if (!evicted.isEmpty()) log.info("Evicted " + evicted.size() + " downloads to stay within " + budgetMb + " MB: " + evicted);
+		}
+		catch (IOException e)
+		{
+			log.warn("Couldn't get the overrides within " + budgetMb + " MB", e);
+		}
+	}
+
+	/**
+	 * Deletes the files of an override that's no longer registered, but keeps a blob other overrides still refer to.
+	 */
+	private void release(TrackOverride override)
+	{
+		if (override.getBlob() != null && getBlobRefs().contains(override.getBlob())) return;
+
 		override.getPaths().forEach(overridePath -> {
 			try {
 				Files.deleteIfExists(overridePath);
 			} catch (IOException e) {
-				log.warn("Couldn't delete " + name, e);
+				log.warn("Couldn't delete " + overridePath + " of " + override.getName(), e);
 			}
 		});
 	}
 
-	private Path transfer(TrackOverride override)
+	/**
+	 * A blob that's in the store and verified to be playable.
+	 */
+	@Value
+	static class Transferred
+	{
+		Path blob;
+		MediaInfo media;
+	}
+
+	private Transferred transfer(TrackOverride override)
 	{
 		return override.isFromLocal()
 			? transferLocal(override)
 			: transferLink(override);
 	}
 
-	private Path transferLocal(TrackOverride override)
+	private Transferred transferLocal(TrackOverride override)
 	{
 		Path path = Paths.get(override.getOriginalPath());
-		Path targetPath = override.getPaths()
-				.filter(e -> extensionOf(path).equals(extensionOf(e)))
-				.findFirst().orElse(null);
-
-		if (targetPath == null)
+		String ext = extensionOf(path);
+		if (!MusicPlayer.PLAYER_PER_EXT.containsKey(ext))
 		{
 			log.warn("Can only load " + MusicPlayer.PLAYER_PER_EXT.keySet() + " files. " + override);
 			return null;
@@ -232,8 +836,8 @@ class Tracks
 
 		try
 		{
-			Files.copy(path, targetPath, StandardCopyOption.REPLACE_EXISTING);
-			return targetPath;
+			MediaInfo media = MediaVerifier.verify(path, ext, null);
+			return new Transferred(blobs.importLocal(path, ext), media);
 		} catch (IOException e)
 		{
 			log.warn("Something went wrong when copying " + override, e);
@@ -246,19 +850,114 @@ class Tracks
 		return fileName.substring(fileName.lastIndexOf('.'));
 	}
 
-	private Path transferLink(TrackOverride override)
+	private Transferred transferLink(TrackOverride override)
 	{
-		Path targetPath = override.getPaths().findFirst().orElseThrow(IllegalStateException::new);
+		Path targetPath = BlobStore.pathOf(remoteBlobOf(override));
+		String ext = extensionOf(targetPath);
+		Duration expected = expectedDuration(override);
+		if (Files.exists(targetPath))
+		{
+			// Another track already downloaded it, probing is cheap so just get the info again
+			try
+			{
+				return new Transferred(targetPath, MediaVerifier.verify(targetPath, ext, expected));
+			}
+			catch (IOException e)
+			{
+				log.warn("Stored " + targetPath + " for " + override + " is broken, downloading it again.", e);
+			}
+		}
 
-		String dlUrl = MUSIC_REPLACER_API + "download/" + override.getOriginalPath() + "?ext=" + extensionOf(targetPath);
-		try (InputStream is = new URL(dlUrl).openStream())
+		GrowingFile download = new GrowingFile(BlobStore.partPathOf(targetPath), targetPath);
+		// If its format allows it can be played while it's coming in
+		if (MusicPlayer.PROGRESSIVE_PLAYER_PER_EXT.containsKey(ext)) downloading.put(override.getName(), download);
+		try
+		{
+			return downloadLink(override, download, ext, expected);
+		}
+		finally
 		{
-			Files.copy(is, targetPath, StandardCopyOption.REPLACE_EXISTING);
-			return targetPath;
+			downloading.remove(override.getName(), download);
+		}
+	}
+
+	private Transferred downloadLink(TrackOverride override, GrowingFile download, String ext, Duration expected)
+	{
+		Path partPath = download.getPart();
+		String dlUrl = api + "download/" + override.getOriginalPath() + "?ext=" + ext;
+		try
+		{
+			// A retry resumes what the failed attempt got
+			breaker.call("Downloading " + override.getName(), () -> {
+				downloader.download(dlUrl, partPath, length -> progressed(override.getName(), download, () -> download.grown(length)));
+				return null;
+			});
+		}
+		catch (ApiCircuitBreaker.OpenException e)
+		{
+			// Already told in chat, no need to log for each track
+			log.debug(e.getMessage());
+			download.failed(e);
+			return null;
 		}
 		catch (IOException e)
 		{
-			log.warn("Something went wrong when downloading for " + override, e);
+			download.failed(e);
+			if (Thread.currentThread().isInterrupted())
+			{
+				// Cancelled, so it won't be resumed either
+				log.debug("Cancelled downloading for " + override);
+				deletePart(partPath);
+			}
+			else
+			{
+				// Keep the part, the next attempt will resume it
+				log.warn("Something went wrong when downloading for " + override, e);
+			}
+			return null;
+		}
+
+		try
+		{
+			MediaInfo media = MediaVerifier.verify(partPath, ext, expected);
+			BlobStore.publish(partPath, download.getTarget());
+			progressed(override.getName(), download, download::completed);
+			return new Transferred(download.getTarget(), media);
+		}
+		catch (IOException e)
+		{
+			// Resuming a broken download won't fix it
+			log.warn("Rejected download for " + override, e);
+			download.failed(e);
+			deletePart(partPath);
+			return null;
+		}
+	}
+
+	private static void deletePart(Path partPath)
+	{
+		try
+		{
+			Files.deleteIfExists(partPath);
+		}
+		catch (IOException e)
+		{
+			log.warn("Couldn't delete " + partPath, e);
+		}
+	}
+
+	/**
+	 * @return the duration the search result said it had, or {@code null} if unknown
+	 */
+	private static Duration expectedDuration(TrackOverride override)
+	{
+		String duration = override.getAdditionalInfo() == null ? null : override.getAdditionalInfo().get("Duration");
+		try
+		{
+			return duration == null ? null : Duration.parse(duration);
+		}
+		catch (DateTimeParseException e)
+		{
 			return null;
 		}
 	}
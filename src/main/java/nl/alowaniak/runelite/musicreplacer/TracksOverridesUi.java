@@ -56,6 +56,10 @@ class TracksOverridesUi
 	private Tracks tracks;
 	@Inject
 	private YouTubeSearcher ytSearcher;
+	@Inject
+	private DownloadPool downloads;
+	@Inject
+	private MusicReplacerConfig config;
 
 	private String lastPlayingTrack;
 	private boolean overrideWidgetsOutdated = true;
@@ -70,6 +74,7 @@ class TracksOverridesUi
 		if (!playingTrack.equals(lastPlayingTrack))
 		{
 			lastPlayingTrack = playingTrack;
+			downloads.nowPlaying(playingTrack);
 			updateCurrentlyPlayingWidget();
 		}
 
@@ -119,6 +124,8 @@ class TracksOverridesUi
 		if (widgetId == InterfaceID.Music.JUKEBOX)
 		{
 			String trackName = Text.removeTags(entry.getTarget());
+			// Likely about to be played
+			tracks.fetchIfMissing(trackName);
 			addMenuEntry("Override", entry).onClick(e ->
 				chatboxPanelManager.openTextMenuInput("How would you like to override " + trackName + "?")
 				.option("With a local file.", () -> overrideByLocal(trackName))
@@ -141,6 +148,20 @@ class TracksOverridesUi
 				addMenuEntry("Remove overrides", entry).onClick(e -> tracks.removeAllOverrides());
 			}
 
+			List<Tracks.Bulk> bulks = tracks.runningBulks();
+			if (!bulks.isEmpty())
+			{
+				addMenuEntry("Cancel overriding", entry).onClick(e -> bulks.forEach(Tracks.Bulk::cancel));
+				if (bulks.stream().allMatch(Tracks.Bulk::isPaused))
+				{
+					addMenuEntry("Resume overriding", entry).onClick(e -> bulks.forEach(Tracks.Bulk::resume));
+				}
+				else
+				{
+					addMenuEntry("Pause overriding", entry).onClick(e -> bulks.forEach(Tracks.Bulk::pause));
+				}
+			}
+
 			addMenuEntry("Override tracks", entry).onClick(e ->
 				chatboxPanelManager.openTextMenuInput("How would you like to bulk override?")
 						.option("From preset", choosePresetForBulkOverride)
@@ -152,7 +173,9 @@ class TracksOverridesUi
 
 	private final Runnable choosePresetForBulkOverride =  () -> {
 		try (InputStreamReader reader = new InputStreamReader(getClass().getResourceAsStream("/presets.json"))) {
-			ChatboxTextMenuInput input = chatboxPanelManager.openTextMenuInput("Which preset? (This will download ALL overridden tracks!)");
+			ChatboxTextMenuInput input = chatboxPanelManager.openTextMenuInput(config.downloadPresetsOnPlay()
+					? "Which preset? (Tracks download when they first play)"
+					: "Which preset? (This will download ALL overridden tracks!)");
 			List<Preset> presets = GSON.fromJson(reader, Preset.LIST_TYPE.getType());
 			presets.forEach(preset -> input.option(preset.getName(), () -> tracks.bulkCreateOverride(preset)));
 			input.build();
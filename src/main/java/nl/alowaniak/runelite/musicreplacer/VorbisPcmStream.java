@@ -0,0 +1,247 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import com.jcraft.jogg.Packet;
+import com.jcraft.jogg.Page;
+import com.jcraft.jogg.StreamState;
+import com.jcraft.jogg.SyncState;
+import com.jcraft.jorbis.Block;
+import com.jcraft.jorbis.Comment;
+import com.jcraft.jorbis.DspState;
+import com.jcraft.jorbis.Info;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Decodes an Ogg Vorbis file with JOrbis, a page at a time, into 16 bit PCM.
+ * Only the first logical bitstream is played (chained streams aren't a thing for music overrides).
+ */
+final class VorbisPcmStream implements PcmStream
+{
+	private static final int READ_BYTES = 4096;
+
+	private final SeekableByteChannel channel;
+
+	private InputStream in;
+	private SyncState oy;
+	private StreamState os;
+	private Page og;
+	private Packet op;
+	private Info vi;
+	private Comment vc;
+	private DspState vd;
+	private Block vb;
+	private boolean eos;
+
+	private final float[][][] pcm = new float[1][][];
+	private int[] pcmIndex;
+	private AudioFormat format;
+
+	private byte[] decoded = new byte[0];
+	private int decodedOffset;
+	private int decodedLength;
+
+	/**
+	 * Takes ownership of {@code channel}, closing it when closed.
+	 */
+	VorbisPcmStream(SeekableByteChannel channel) throws IOException
+	{
+		this.channel = channel;
+		try
+		{
+			open();
+		}
+		catch (IOException e)
+		{
+			channel.close(); // Decoder isn't set up yet, nothing else to clear
+			throw e;
+		}
+	}
+
+	private void open() throws IOException
+	{
+		// Not closed on its own, that would close the channel
+		in = Channels.newInputStream(channel);
+		oy = new SyncState();
+		os = new StreamState();
+		og = new Page();
+		op = new Packet();
+		vi = new Info();
+		vc = new Comment();
+		vd = new DspState();
+		vb = new Block(vd);
+		eos = false;
+		decodedLength = 0;
+
+		oy.init();
+		vi.init();
+		vc.init();
+		readHeaders();
+		vd.synthesis_init(vi);
+		vb.init(vd);
+
+		pcmIndex = new int[vi.channels];
+		format = new AudioFormat(vi.rate, 16, vi.channels, true, false);
+	}
+
+	/**
+	 * The first three packets are the identification, comment and setup headers.
+	 */
+	private void readHeaders() throws IOException
+	{
+		while (oy.pageout(og) != 1)
+		{
+			if (!feed()) throw new IOException("Not an Ogg bitstream");
+		}
+		os.init(og.serialno());
+		if (os.pagein(og) < 0 || os.packetout(op) != 1 || vi.synthesis_headerin(vc, op) < 0)
+		{
+			throw new IOException("Ogg bitstream doesn't contain Vorbis audio");
+		}
+
+		int headers = 1;
+		while (headers < 3)
+		{
+			int result = oy.pageout(og);
+			if (result == 0)
+			{
+				if (!feed()) throw new IOException("Ended within the Vorbis headers");
+				continue;
+			}
+			if (result < 0) continue; // Lost sync, the next page will do
+
+			os.pagein(og);
+			while (headers < 3 && (result = os.packetout(op)) != 0)
+			{
+				if (result < 0 || vi.synthesis_headerin(vc, op) < 0)
+				{
+					throw new IOException("Corrupt Vorbis header");
+				}
+				headers++;
+			}
+		}
+	}
+
+	/**
+	 * @return false if there's nothing left to read
+	 */
+	private boolean feed() throws IOException
+	{
+		int index = oy.buffer(READ_BYTES);
+		int read = in.read(oy.data, index, READ_BYTES);
+		if (read <= 0) return false;
+		oy.wrote(read);
+		return true;
+	}
+
+	/**
+	 * Decodes until there's some PCM in {@link #decoded}.
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean decodeMore() throws IOException
+	{
+		while (true)
+		{
+			int samples = vd.synthesis_pcmout(pcm, pcmIndex);
+			if (samples > 0)
+			{
+				toBytes(pcm[0], samples);
+				vd.synthesis_read(samples);
+				return true;
+			}
+
+			int result = os.packetout(op);
+			if (result > 0)
+			{
+				if (vb.synthesis(op) == 0) vd.synthesis_blockin(vb);
+				continue;
+			}
+			if (result < 0) continue; // Hole in the data, skip the packet
+			if (eos) return false;
+
+			result = oy.pageout(og);
+			if (result > 0)
+			{
+				os.pagein(og);
+				if (og.eos() != 0) eos = true;
+			}
+			else if (result == 0 && !feed())
+			{
+				return false; // File ended without an end of stream page
+			}
+		}
+	}
+
+	private void toBytes(float[][] channelsPcm, int samples)
+	{
+		int channels = channelsPcm.length;
+		int length = samples * channels * 2;
+		if (decoded.length < length) decoded = new byte[length];
+
+		for (int ch = 0; ch < channels; ch++)
+		{
+			float[] channel = channelsPcm[ch];
+			int from = pcmIndex[ch];
+			for (int i = 0, out = ch * 2; i < samples; i++, out += channels * 2)
+			{
+				int value = (int) (channel[from + i] * 32767);
+				if (value > Short.MAX_VALUE) value = Short.MAX_VALUE;
+				else if (value < Short.MIN_VALUE) value = Short.MIN_VALUE;
+				decoded[out] = (byte) value;
+				decoded[out + 1] = (byte) (value >> 8);
+			}
+		}
+		decodedOffset = 0;
+		decodedLength = length;
+	}
+
+	@Override
+	public AudioFormat getFormat()
+	{
+		return format;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException
+	{
+		while (decodedLength == 0)
+		{
+			if (!decodeMore()) return -1;
+		}
+
+		int frameSize = format.getFrameSize();
+		int read = Math.min(decodedLength, length / frameSize * frameSize);
+		System.arraycopy(decoded, decodedOffset, buffer, offset, read);
+		decodedOffset += read;
+		decodedLength -= read;
+		return read;
+	}
+
+	@Override
+	public void rewind() throws IOException
+	{
+		clear();
+		channel.position(0);
+		open();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		clear();
+		channel.close();
+	}
+
+	private void clear()
+	{
+		os.clear();
+		vb.clear();
+		vd.clear();
+		vi.clear();
+		oy.clear();
+	}
+}
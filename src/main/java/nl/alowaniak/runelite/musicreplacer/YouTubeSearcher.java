@@ -18,7 +18,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import static net.runelite.http.api.RuneLiteAPI.GSON;
-import static nl.alowaniak.runelite.musicreplacer.MusicReplacerPlugin.MUSIC_REPLACER_API;
 
 @Slf4j
 @Singleton
@@ -30,6 +29,11 @@ class YouTubeSearcher
 	@Inject
 	@Named(MusicReplacerPlugin.MUSIC_REPLACER_EXECUTOR)
 	private ExecutorService executor;
+	@Inject
+	@Named(MusicReplacerPlugin.MUSIC_REPLACER_API_URL)
+	private String api;
+	@Inject
+	private ApiCircuitBreaker breaker;
 
 	/**
 	 * @param term the {@code term} to search for.
@@ -41,11 +45,21 @@ class YouTubeSearcher
 	}
 
     private List<SearchResult> getSearchResults(String term) {
-        try (Response res = getSearchResponse(term))
+        try
         {
-            if (!res.isSuccessful()) throw new IOException(res.code() + ": " + res.message() + " " + res.body().string());
+            return breaker.call("Searching for " + term, () -> {
+                try (Response res = getSearchResponse(term))
+                {
+                    if (!res.isSuccessful()) throw ApiCircuitBreaker.statusError(res.code(), res.code() + ": " + res.message() + " " + res.body().string());
 
-            return GSON.fromJson(res.body().string(), SearchResult.LIST_TYPE.getType());
+                    return GSON.fromJson(res.body().string(), SearchResult.LIST_TYPE.getType());
+                }
+            });
+        }
+        catch (ApiCircuitBreaker.OpenException e)
+        {
+            log.debug(e.getMessage());
+            return Collections.emptyList();
         }
         catch (IOException e)
         {
@@ -58,7 +72,7 @@ class YouTubeSearcher
         return http.newBuilder().readTimeout(1, TimeUnit.MINUTES)
             .build()
             .newCall(new Request.Builder()
-                .url(MUSIC_REPLACER_API + "search/" + URLEncoder.encode(term, StandardCharsets.UTF_8))
+                .url(api + "search/" + URLEncoder.encode(term, StandardCharsets.UTF_8))
                 .build()
             ).execute();
     }
@@ -0,0 +1,124 @@
+package com.adonax.audiocue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Opened on an {@link AudioMixer} that isn't started, so nothing takes the commands and settings until the test
+ * reads a buffer itself, like the audio thread would.
+ */
+public class AudioCueTest
+{
+	private AudioCue cue;
+
+	@Before
+	public void before()
+	{
+		float[] stereo = new float[44100 * 2];
+		Arrays.fill(stereo, 0.5f);
+		cue = AudioCue.makeStereoCue(stereo, "test", 2);
+		cue.open(new AudioMixer());
+	}
+
+	@After
+	public void after()
+	{
+		cue.close();
+	}
+
+	@Test
+	public void settingsCoalesceWhileTheAudioThreadLags() throws IOException
+	{
+		int hook = cue.obtainInstance();
+		for (int i = 0; i <= 10_000; i++)
+		{
+			cue.setVolume(hook, i / 10_000.0);
+		}
+		assertEquals(1, cue.getVolume(hook), 0);
+
+		cue.start(hook);
+		// Starts with the latest volume, not ramping up to it
+		assertEquals(0.5, cue.readTrack()[0], 1e-6);
+	}
+
+	@Test
+	public void gettersGiveWhatWasJustSet()
+	{
+		int hook = cue.obtainInstance();
+		cue.setVolume(hook, 0.25);
+		cue.setPan(hook, -0.5);
+		cue.setSpeed(hook, 2);
+
+		assertEquals(0.25, cue.getVolume(hook), 0);
+		assertEquals(-0.5, cue.getPan(hook), 0);
+		assertEquals(2, cue.getSpeed(hook), 0);
+	}
+
+	@Test
+	public void releasedInstanceStartsFromTheDefaults() throws IOException
+	{
+		int hook = cue.obtainInstance();
+		cue.setVolume(hook, 1);
+		cue.setLooping(hook, -1);
+		cue.releaseInstance(hook);
+
+		int next = cue.obtainInstance();
+		assertEquals(hook, next);
+		assertEquals(0, cue.getVolume(next), 0);
+		cue.setVolume(next, 0.5);
+		cue.start(next);
+		assertEquals(0.25, cue.readTrack()[0], 1e-6);
+	}
+
+	@Test
+	public void theAudioThreadNeverRunsListeners() throws IOException
+	{
+		List<Thread> listenedOn = new CopyOnWriteArrayList<>();
+		cue.addAudioCueListener(new AudioCueListener()
+		{
+			@Override
+			public void audioCueOpened(long now, int threadPriority, int bufferSize, AudioCue source) {}
+
+			@Override
+			public void audioCueClosed(long now, AudioCue source) {}
+
+			@Override
+			public void instanceEventOccurred(AudioCueInstanceEvent event)
+			{
+				listenedOn.add(Thread.currentThread());
+			}
+		});
+		int hook = cue.obtainInstance();
+		cue.start(hook);
+		cue.close();
+
+		// A mixer can still fill a buffer after the cue is closed, here until the instance stops
+		for (int i = 0; i < 8; i++)
+		{
+			cue.readTrack();
+		}
+		assertFalse(cue.getIsPlaying(hook));
+		assertFalse(listenedOn.contains(Thread.currentThread()));
+
+		cue.open(new AudioMixer());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void commandsFailLoudlyRatherThanGetDropped()
+	{
+		int hook = cue.obtainInstance();
+		for (int i = 0; i < 1000; i++)
+		{
+			cue.setFramePosition(hook, 0);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.adonax.audiocue;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioFormat.Encoding;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+ * Encodes known samples in each supported format and checks
+ * they decode back to the same values (within the precision of
+ * the format).
+ */
+public class PcmDecoderTest
+{
+	// left, right pairs, including both extremes
+	private static final double[] SAMPLES = {
+		0, 0,
+		0.5, -0.5,
+		-1, 0.999,
+		0.25, -0.125,
+		-0.75, 0.0625,
+	};
+
+	@Test
+	public void pcm8Signed() throws Exception
+	{
+		roundTrip(Encoding.PCM_SIGNED, 8, false);
+	}
+
+	@Test
+	public void pcm8Unsigned() throws Exception
+	{
+		roundTrip(Encoding.PCM_UNSIGNED, 8, false);
+	}
+
+	@Test
+	public void pcm16LittleEndian() throws Exception
+	{
+		roundTrip(Encoding.PCM_SIGNED, 16, false);
+	}
+
+	@Test
+	public void pcm16BigEndian() throws Exception
+	{
+		roundTrip(Encoding.PCM_SIGNED, 16, true);
+	}
+
+	@Test
+	public void pcm24LittleEndian() throws Exception
+	{
+		roundTrip(Encoding.PCM_SIGNED, 24, false);
+	}
+
+	@Test
+	public void pcm24BigEndian() throws Exception
+	{
+		roundTrip(Encoding.PCM_SIGNED, 24, true);
+	}
+
+	@Test
+	public void pcm32LittleEndian() throws Exception
+	{
+		roundTrip(Encoding.PCM_SIGNED, 32, false);
+	}
+
+	@Test
+	public void pcm32BigEndian() throws Exception
+	{
+		roundTrip(Encoding.PCM_SIGNED, 32, true);
+	}
+
+	@Test
+	public void float32LittleEndian() throws Exception
+	{
+		roundTrip(Encoding.PCM_FLOAT, 32, false);
+	}
+
+	@Test
+	public void float32BigEndian() throws Exception
+	{
+		roundTrip(Encoding.PCM_FLOAT, 32, true);
+	}
+
+	@Test
+	public void float64() throws Exception
+	{
+		roundTrip(Encoding.PCM_FLOAT, 64, false);
+	}
+
+	@Test(expected = javax.sound.sampled.UnsupportedAudioFileException.class)
+	public void rejectsOddSampleSizes() throws Exception
+	{
+		PcmDecoder.forFormat(new AudioFormat(Encoding.PCM_SIGNED, 44100, 12, 2, 3, 44100, false));
+	}
+
+	private static void roundTrip(Encoding encoding, int bits, boolean bigEndian) throws Exception
+	{
+		for (int channels = 1; channels <= 3; channels++)
+		{
+			int frameSize = channels * bits / 8;
+			AudioFormat format = new AudioFormat(encoding, 44100, bits, channels, frameSize, 44100, bigEndian);
+			PcmDecoder decoder = PcmDecoder.forFormat(format);
+			assertEquals(frameSize, decoder.getFrameSize());
+
+			int frames = SAMPLES.length / 2;
+			byte[] in = new byte[frames * frameSize];
+			for (int f = 0; f < frames; f++)
+			{
+				for (int c = 0; c < channels; c++)
+				{
+					// a third channel gets garbage, it's not to be used
+					double value = c < 2 ? SAMPLES[f * 2 + c] : 0.3;
+					encode(value, encoding, bits, bigEndian, in, f * frameSize + c * bits / 8);
+				}
+			}
+
+			// Decoded at an offset, behind a frame that must be left alone
+			float[] out = new float[(frames + 1) * 2];
+			out[0] = 42;
+			out[1] = 42;
+			decoder.decode(in, frames, out, 1);
+
+			String what = encoding + " " + bits + " bit " + (bigEndian ? "BE" : "LE") + ", " + channels + " channels";
+			// the output is a float, which can't hold a 32 bit sample exactly
+			double precision = encoding == Encoding.PCM_FLOAT ? 1e-6 : Math.max(1.0 / (1L << (bits - 1)), 1.0 / (1 << 24));
+			assertEquals(what, 42, out[0], 0);
+			assertEquals(what, 42, out[1], 0);
+			for (int f = 0; f < frames; f++)
+			{
+				double left = SAMPLES[f * 2];
+				// mono feeds the single channel to both sides
+				double right = channels == 1 ? left : SAMPLES[f * 2 + 1];
+				assertEquals(what + ", frame " + f, left, out[(f + 1) * 2], precision);
+				assertEquals(what + ", frame " + f, right, out[(f + 1) * 2 + 1], precision);
+			}
+		}
+	}
+
+	private static void encode(double value, Encoding encoding, int bits, boolean bigEndian, byte[] out, int offset)
+	{
+		int bytes = bits / 8;
+		long raw;
+		if (encoding == Encoding.PCM_FLOAT)
+		{
+			raw = bits == 32 ? Float.floatToIntBits((float) value) : Double.doubleToLongBits(value);
+		}
+		else
+		{
+			long full = 1L << (bits - 1);
+			raw = Math.max(-full, Math.min(full - 1, Math.round(value * full)));
+			if (encoding == Encoding.PCM_UNSIGNED) raw += full;
+		}
+		for (int i = 0; i < bytes; i++)
+		{
+			int shift = 8 * (bigEndian ? bytes - 1 - i : i);
+			out[offset + i] = (byte) (raw >>> shift);
+		}
+	}
+}
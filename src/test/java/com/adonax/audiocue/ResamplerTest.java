@@ -0,0 +1,104 @@
+package com.adonax.audiocue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResamplerTest
+{
+	@Test
+	public void downsamplingKeepsDcAtUnityGain()
+	{
+		assertDcKept(48000, 44100);
+	}
+
+	@Test
+	public void upsamplingKeepsDcAtUnityGain()
+	{
+		assertDcKept(22050, 44100);
+	}
+
+	@Test
+	public void unrelatedRatesKeepDcAtUnityGain()
+	{
+		// No small common ratio, so the nearest of the capped phases is used
+		assertDcKept(44101, 44100);
+	}
+
+	@Test
+	public void cappedPhasesDontShiftTheSignal()
+	{
+		// 44101 -> 44100 would need 44100 phases, so it gets the capped number and positions in between take the nearest
+		int from = 44101;
+		int to = 44100;
+		double hz = 10_000;
+		int frames = 44101;
+		float[] stereo = new float[frames * 2];
+		for (int i = 0; i < frames; i++)
+		{
+			stereo[i * 2] = stereo[i * 2 + 1] = (float)Math.sin(2 * Math.PI * hz * i / from);
+		}
+
+		float[] out = new Resampler(from, to).resample(stereo);
+		int outFrames = out.length / 2;
+		// Phase of the output against a sine at the target rate, over the middle the kernel fully covers
+		double sin = 0;
+		double cos = 0;
+		for (int i = outFrames / 8; i < outFrames * 7 / 8; i++)
+		{
+			double angle = 2 * Math.PI * hz * i / to;
+			sin += out[i * 2] * Math.sin(angle);
+			cos += out[i * 2] * Math.cos(angle);
+		}
+		// Always taking the phase before the position would lag about 7e-4 radians here
+		assertEquals(0, Math.atan2(cos, sin), 1e-4);
+	}
+
+	@Test
+	public void outputLengthFollowsTheRatio()
+	{
+		assertEquals(44100 * 2, new Resampler(48000, 44100).resample(new float[48000 * 2]).length);
+		assertEquals(44100 * 2, new Resampler(22050, 44100).resample(new float[22050 * 2]).length);
+		// A partial output frame is rounded up
+		assertEquals(919 * 2, new Resampler(48000, 44100).resample(new float[1000 * 2]).length);
+	}
+
+	@Test
+	public void sameRateIsLeftAlone()
+	{
+		Resampler resampler = new Resampler(44100, 44100);
+		float[] stereo = new float[64];
+		assertFalse(resampler.isConverting());
+		assertSame(stereo, resampler.resample(stereo));
+		assertTrue(new Resampler(48000, 44100).isConverting());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownRates()
+	{
+		new Resampler(-1, 44100);
+	}
+
+	private static void assertDcKept(float from, float to)
+	{
+		int frames = 4096;
+		float[] stereo = new float[frames * 2];
+		for (int i = 0; i < frames; i++)
+		{
+			stereo[i * 2] = .5f;
+			stereo[i * 2 + 1] = -.25f;
+		}
+
+		float[] out = new Resampler(from, to).resample(stereo);
+		int outFrames = out.length / 2;
+		// The edges see zeros beyond the data, only the middle is fully covered by the kernel
+		for (int i = outFrames / 8; i < outFrames * 7 / 8; i++)
+		{
+			assertEquals("left " + i, .5, out[i * 2], 1e-4);
+			assertEquals("right " + i, -.25, out[i * 2 + 1], 1e-4);
+		}
+	}
+}
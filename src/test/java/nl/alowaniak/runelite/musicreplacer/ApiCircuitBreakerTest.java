@@ -0,0 +1,216 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import nl.alowaniak.runelite.musicreplacer.ApiCircuitBreaker.State;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ApiCircuitBreakerTest
+{
+	private static final Duration OPEN = Duration.ofSeconds(30);
+	private static final Duration NANO = Duration.ofNanos(1);
+
+	private final FakeClock clock = new FakeClock();
+	private final MusicReplacerPlugin plugin = mock(MusicReplacerPlugin.class);
+	private final AtomicInteger calls = new AtomicInteger();
+	private ApiCircuitBreaker breaker;
+
+	@Before
+	public void before()
+	{
+		breaker = Guice.createInjector(new AbstractModule()
+		{
+			@Override
+			protected void configure()
+			{
+				bind(MusicReplacerPlugin.class).toInstance(plugin);
+				bind(ApiCircuitBreaker.Clock.class).toInstance(clock);
+			}
+		}).getInstance(ApiCircuitBreaker.class);
+	}
+
+	@Test
+	public void backsOffExponentiallyWithJitter() throws Exception
+	{
+		assertFails(IOException.class);
+
+		assertEquals(ApiCircuitBreaker.MAX_ATTEMPTS, calls.get());
+		// Between half and all of 500ms, doubling each attempt (the clock picks all)
+		assertEquals(Arrays.asList("250..500", "500..1000", "1000..2000"), clock.randoms());
+		assertEquals(Arrays.asList(500L, 1000L, 2000L), clock.sleeps());
+	}
+
+	@Test
+	public void stopsRetryingOnceItSucceeds() throws Exception
+	{
+		assertEquals("ok", breaker.call("Test", () -> calls.incrementAndGet() < 3 ? failWith(new IOException("Down")) : "ok"));
+
+		assertEquals(3, calls.get());
+		assertEquals(Arrays.asList(500L, 1000L), clock.sleeps());
+		assertEquals(State.CLOSED, breaker.state());
+	}
+
+	@Test
+	public void rejectionIsNeitherRetriedNorCounted() throws Exception
+	{
+		for (int i = 0; i < ApiCircuitBreaker.FAILURES_TO_OPEN + 1; i++)
+		{
+			try
+			{
+				breaker.call("Test", () -> failWith(new ApiCircuitBreaker.Rejected("404")));
+				fail("Rejection got swallowed");
+			}
+			catch (ApiCircuitBreaker.Rejected expected)
+			{
+			}
+		}
+
+		assertEquals(Collections.emptyList(), clock.sleeps());
+		assertEquals(State.CLOSED, breaker.state());
+	}
+
+	@Test
+	public void successInBetweenResetsTheFailureCount() throws Exception
+	{
+		for (int i = 0; i < ApiCircuitBreaker.FAILURES_TO_OPEN - 1; i++) assertFails(IOException.class);
+		breaker.call("Test", () -> "ok");
+		for (int i = 0; i < ApiCircuitBreaker.FAILURES_TO_OPEN - 1; i++) assertFails(IOException.class);
+
+		assertEquals(State.CLOSED, breaker.state());
+	}
+
+	@Test
+	public void opensHalfOpensAndClosesAgain() throws Exception
+	{
+		for (int i = 0; i < ApiCircuitBreaker.FAILURES_TO_OPEN - 1; i++) assertFails(IOException.class);
+		assertEquals(State.CLOSED, breaker.state());
+		assertFails(IOException.class);
+		assertEquals(State.OPEN, breaker.state());
+		verify(plugin, times(1)).chatMsg(startsWith("The music replacer API isn't responding"));
+
+		// Open: calls fail without being made
+		calls.set(0);
+		assertFails(ApiCircuitBreaker.OpenException.class);
+		clock.advance(OPEN.minus(NANO));
+		assertFails(ApiCircuitBreaker.OpenException.class);
+		assertEquals(0, calls.get());
+
+		// Half open: one call is let through, without retries, the others still fail
+		clock.advance(NANO);
+		assertEquals(State.HALF_OPEN, breaker.state());
+		int sleeps = clock.sleeps().size();
+		try
+		{
+			breaker.call("Probe", () -> {
+				assertEquals(State.HALF_OPEN, breaker.state());
+				assertFails(ApiCircuitBreaker.OpenException.class);
+				throw new IOException("Still down");
+			});
+			fail("Probe didn't fail");
+		}
+		catch (IOException e)
+		{
+			assertEquals("Still down", e.getMessage());
+		}
+		assertEquals(sleeps, clock.sleeps().size());
+
+		// Failed probe: open for twice as long
+		assertEquals(State.OPEN, breaker.state());
+		clock.advance(OPEN.multipliedBy(2).minus(NANO));
+		assertEquals(State.OPEN, breaker.state());
+		clock.advance(NANO);
+		assertEquals(State.HALF_OPEN, breaker.state());
+
+		// Successful probe: closed
+		assertEquals("ok", breaker.call("Probe", () -> "ok"));
+		assertEquals(State.CLOSED, breaker.state());
+		verify(plugin, times(1)).chatMsg(startsWith("The music replacer API isn't responding"));
+
+		// And the next time it opens it's for the initial time again
+		for (int i = 0; i < ApiCircuitBreaker.FAILURES_TO_OPEN; i++) assertFails(IOException.class);
+		clock.advance(OPEN.minus(NANO));
+		assertEquals(State.OPEN, breaker.state());
+		clock.advance(NANO);
+		assertEquals(State.HALF_OPEN, breaker.state());
+	}
+
+	@Test
+	public void staysOpenLongerForEachFailedProbeUpToFiveMinutes() throws Exception
+	{
+		for (int i = 0; i < ApiCircuitBreaker.FAILURES_TO_OPEN; i++) assertFails(IOException.class);
+
+		clock.advance(OPEN);
+		for (long seconds : new long[]{60, 120, 240, 300, 300})
+		{
+			Duration open = Duration.ofSeconds(seconds);
+			assertEquals(State.HALF_OPEN, breaker.state());
+			assertFails(IOException.class);
+			clock.advance(open.minus(NANO));
+			assertEquals(open.toString(), State.OPEN, breaker.state());
+			clock.advance(NANO);
+		}
+	}
+
+	@Test
+	public void abandonedProbeLetsTheNextCallProbe() throws Exception
+	{
+		for (int i = 0; i < ApiCircuitBreaker.FAILURES_TO_OPEN; i++) assertFails(IOException.class);
+		clock.advance(OPEN);
+
+		IllegalStateException bug = new IllegalStateException("Bug");
+		try
+		{
+			breaker.call("Probe", () -> {
+				throw bug;
+			});
+			fail("Probe didn't fail");
+		}
+		catch (IllegalStateException e)
+		{
+			assertSame(bug, e);
+		}
+
+		assertEquals(State.HALF_OPEN, breaker.state());
+		assertEquals("ok", breaker.call("Probe", () -> "ok"));
+		assertEquals(State.CLOSED, breaker.state());
+	}
+
+	/**
+	 * Makes a call that keeps failing with an {@link IOException}.
+	 */
+	private void assertFails(Class<? extends IOException> expected)
+	{
+		try
+		{
+			breaker.call("Test", () -> {
+				calls.incrementAndGet();
+				throw new IOException("Down");
+			});
+			fail("Call didn't fail");
+		}
+		catch (IOException e)
+		{
+			assertEquals(expected, e.getClass());
+		}
+	}
+
+	private static <T> T failWith(IOException e) throws IOException
+	{
+		throw e;
+	}
+}
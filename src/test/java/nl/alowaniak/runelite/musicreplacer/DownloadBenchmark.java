@@ -0,0 +1,96 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.doReturn;
+
+/**
+ * Measures the download pipeline end to end against a {@link StandInApi} that behaves like a remote server (latency,
+ * limited bandwidth per download): how fast a preset comes in at a few concurrency settings, and how long a single
+ * override takes from choosing it to being committed.
+ * <p>
+ * Run its main, arguments (all optional): preset tracks, track seconds, latency ms, KB/s per download.
+ */
+public class DownloadBenchmark
+{
+	private static final Duration TIMEOUT = Duration.ofMinutes(10);
+	private static final int[] CONCURRENCIES = {1, 3, 6, 12};
+	private static final int SINGLE_OVERRIDES = 10;
+
+	public static void main(String[] args) throws Exception
+	{
+		int presetTracks = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+		int trackSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+		long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 150;
+		long bytesPerSecond = (args.length > 3 ? Long.parseLong(args[3]) : 2048) * 1024;
+
+		System.out.printf("%d tracks of %ds, %dms latency, %d KB/s per download%n",
+				presetTracks, trackSeconds, latencyMillis, bytesPerSecond / 1024);
+
+		for (int concurrency : CONCURRENCIES)
+		{
+			try (StandInPipeline pipeline = pipeline(trackSeconds, latencyMillis, bytesPerSecond))
+			{
+				doReturn(concurrency).when(pipeline.config).downloadConcurrency();
+				doReturn(concurrency).when(pipeline.config).downloadsPerHost();
+				benchmarkPreset(pipeline, presetTracks, concurrency);
+			}
+		}
+
+		try (StandInPipeline pipeline = pipeline(trackSeconds, latencyMillis, bytesPerSecond))
+		{
+			benchmarkSingleOverride(pipeline);
+		}
+		System.exit(0); // OkHttp's pool keeps the JVM around for a while otherwise
+	}
+
+	private static StandInPipeline pipeline(int trackSeconds, long latencyMillis, long bytesPerSecond) throws Exception
+	{
+		StandInPipeline pipeline = new StandInPipeline();
+		pipeline.api.setTrackSeconds(trackSeconds);
+		pipeline.api.setLatencyMillis(latencyMillis);
+		pipeline.api.setBytesPerSecond(bytesPerSecond);
+		return pipeline;
+	}
+
+	private static void benchmarkPreset(StandInPipeline pipeline, int trackCount, int concurrency) throws Exception
+	{
+		Map<String, SearchResult> tracks = new LinkedHashMap<>();
+		for (int i = 0; i < trackCount; i++)
+		{
+			tracks.put("Track " + i, pipeline.api.hit("video-" + i));
+		}
+
+		long start = System.nanoTime();
+		pipeline.get(Tracks.class).bulkCreateOverride(new Preset("Benchmark", "", tracks));
+		pipeline.awaitChat(e -> e.startsWith("Finished downloading preset Benchmark"), TIMEOUT);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		double megabytes = pipeline.api.getBytesServed().get() / (1024d * 1024);
+		System.out.printf("Preset, %2d parallel: %6.2fs, %6.2f MB/s, %5.2f tracks/s%n",
+				concurrency, seconds, megabytes / seconds, trackCount / seconds);
+	}
+
+	private static void benchmarkSingleOverride(StandInPipeline pipeline) throws Exception
+	{
+		Tracks tracks = pipeline.get(Tracks.class);
+		List<Double> millis = new ArrayList<>();
+		for (int i = 0; i < SINGLE_OVERRIDES; i++)
+		{
+			String name = "Single " + i;
+			long start = System.nanoTime();
+			tracks.createOverride(name, pipeline.api.hit("single-" + i));
+			pipeline.awaitCommitted(name, TIMEOUT);
+			millis.add((System.nanoTime() - start) / 1e6);
+		}
+
+		Collections.sort(millis);
+		System.out.printf("Single override: p50 %.0fms, p95 %.0fms, max %.0fms%n",
+				millis.get(millis.size() / 2), millis.get((int) Math.ceil(millis.size() * .95) - 1), millis.get(millis.size() - 1));
+	}
+}
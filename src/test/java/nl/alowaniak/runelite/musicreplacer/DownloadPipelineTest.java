@@ -0,0 +1,226 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadPipelineTest
+{
+	private static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+	private StandInPipeline pipeline;
+	private StandInApi api;
+	private Tracks tracks;
+
+	@Before
+	public void before() throws Exception
+	{
+		pipeline = new StandInPipeline();
+		api = pipeline.api;
+		api.setTrackSeconds(10);
+		tracks = pipeline.get(Tracks.class);
+	}
+
+	@After
+	public void after()
+	{
+		pipeline.close();
+	}
+
+	@Test
+	public void searchGivesTheHits() throws Exception
+	{
+		CompletableFuture<List<SearchResult>> hits = new CompletableFuture<>();
+		pipeline.get(YouTubeSearcher.class).search("Harmony", hits::complete);
+
+		List<SearchResult> results = hits.get(TIMEOUT.getSeconds(), TimeUnit.SECONDS);
+		assertEquals(StandInApi.SEARCH_RESULTS, results.size());
+		assertEquals("Harmony-0", results.get(0).getId());
+		assertEquals(api.trackDurationSeconds(), results.get(0).getDuration());
+	}
+
+	@Test
+	public void failedSearchGivesNoHits() throws Exception
+	{
+		api.setErrorRate(1);
+		CompletableFuture<List<SearchResult>> hits = new CompletableFuture<>();
+		pipeline.get(YouTubeSearcher.class).search("Harmony", hits::complete);
+
+		assertTrue(hits.get(TIMEOUT.getSeconds(), TimeUnit.SECONDS).isEmpty());
+	}
+
+	@Test
+	public void overrideFromSearchIsDownloadedVerifiedAndCommitted() throws Exception
+	{
+		tracks.createOverride("Harmony", api.hit("Harmony-0"));
+
+		TrackOverride override = pipeline.awaitCommitted("Harmony", TIMEOUT);
+		assertEquals("Harmony-0", override.getOriginalPath());
+		assertTrue(override.getMedia().getFormat().startsWith("MPEG-1 Layer III"));
+		assertEquals(api.trackBytes(), Files.size(BlobStore.pathOf(override.getBlob())));
+		pipeline.awaitChat(e -> e.startsWith("Overridden Harmony"), TIMEOUT);
+	}
+
+	@Test
+	public void cutOffDownloadIsResumed() throws Exception
+	{
+		api.setCutRate(1);
+		tracks.createOverride("Harmony", api.hit("Harmony-0"));
+		pipeline.awaitChat(e -> e.startsWith("Failed to override Harmony"), TIMEOUT);
+
+		api.setCutRate(0);
+		tracks.createOverride("Harmony", api.hit("Harmony-0"));
+		pipeline.awaitCommitted("Harmony", TIMEOUT);
+
+		assertEquals(ApiCircuitBreaker.MAX_ATTEMPTS + 1, api.getDownloads().get());
+		assertEquals(List.of(500L, 1000L, 2000L), pipeline.clock.sleeps());
+		// Each attempt only got what was missing
+		assertTrue(api.getBytesServed().get() < api.trackBytes() * 3 / 2);
+	}
+
+	@Test
+	public void transientErrorsAreRetried() throws Exception
+	{
+		api.failNext(ApiCircuitBreaker.MAX_ATTEMPTS - 1);
+		tracks.createOverride("Harmony", api.hit("Harmony-0"));
+
+		pipeline.awaitCommitted("Harmony", TIMEOUT);
+		assertEquals(ApiCircuitBreaker.MAX_ATTEMPTS, api.getRequests().get());
+		assertEquals(1, api.getDownloads().get());
+		assertEquals(List.of(500L, 1000L, 2000L), pipeline.clock.sleeps());
+	}
+
+	@Test
+	public void unresponsiveApiFailsFastWithOneMessage() throws Exception
+	{
+		api.setErrorRate(1);
+		Map<String, SearchResult> presetTracks = new LinkedHashMap<>();
+		for (int i = 0; i < 30; i++)
+		{
+			presetTracks.put("Track " + i, api.hit("video-" + i));
+		}
+		tracks.bulkCreateOverride(new Preset("Down", "", presetTracks));
+
+		pipeline.awaitChat(e -> e.startsWith("Finished downloading preset Down"), TIMEOUT);
+		assertEquals(1, pipeline.chat().stream().filter(e -> e.startsWith("The music replacer API isn't responding")).count());
+		// Only the downloads that were already going when it opened got retried, the rest weren't tried at all
+		assertTrue(api.getRequests().get() < 10 * ApiCircuitBreaker.MAX_ATTEMPTS);
+		// The backoffs only moved the clock a few seconds, nowhere near the end of the open period
+		assertEquals(ApiCircuitBreaker.State.OPEN, pipeline.get(ApiCircuitBreaker.class).state());
+
+		CompletableFuture<List<SearchResult>> hits = new CompletableFuture<>();
+		int requests = api.getRequests().get();
+		pipeline.get(YouTubeSearcher.class).search("Harmony", hits::complete);
+		assertTrue(hits.get(TIMEOUT.getSeconds(), TimeUnit.SECONDS).isEmpty());
+		assertEquals(requests, api.getRequests().get());
+	}
+
+	@Test
+	public void errorPageIsNotCommitted() throws Exception
+	{
+		api.setErrorPage(true);
+		tracks.createOverride("Harmony", api.hit("Harmony-0"));
+		pipeline.awaitChat(e -> e.startsWith("Failed to override Harmony"), TIMEOUT);
+
+		assertNull(tracks.getOverride("Harmony"));
+		assertTrue(Files.notExists(BlobStore.pathOf(BlobStore.remoteBlob("Harmony-0", ".mp3"))));
+	}
+
+	@Test
+	public void presetDownloadsEachVideoOnce() throws Exception
+	{
+		Map<String, SearchResult> presetTracks = new LinkedHashMap<>();
+		for (int i = 0; i < 6; i++)
+		{
+			presetTracks.put("Track " + i, api.hit("video-" + i));
+		}
+		presetTracks.put("Same as track 0", api.hit("video-0"));
+		tracks.bulkCreateOverride(new Preset("Stand-in", "Credits", presetTracks));
+
+		pipeline.awaitChat(e -> e.startsWith("Finished downloading preset Stand-in"), TIMEOUT);
+		for (String name : presetTracks.keySet())
+		{
+			assertNotNull(name, tracks.getOverride(name).getMedia());
+		}
+		assertEquals(6, api.getDownloads().get());
+	}
+
+	@Test
+	public void cancelledPresetAbortsItsDownloadsAndCleansUp() throws Exception
+	{
+		// The downloads never finish, so only aborting them ends the bulk
+		api.holdDownloads();
+		Map<String, SearchResult> presetTracks = new LinkedHashMap<>();
+		for (int i = 0; i < 12; i++)
+		{
+			presetTracks.put("Track " + i, api.hit("video-" + i));
+		}
+		Tracks.Bulk bulk = tracks.bulkCreateOverride(new Preset("Stuck", "", presetTracks));
+		int started = pipeline.config.downloadsPerHost();
+		api.awaitDownloads(started, TIMEOUT);
+
+		bulk.cancel();
+		pipeline.awaitChat(e -> e.startsWith("Cancelled overriding with Stuck"), TIMEOUT);
+
+		assertEquals(started, api.getDownloads().get());
+		assertTrue(tracks.runningBulks().isEmpty());
+		for (String name : presetTracks.keySet())
+		{
+			assertNull(name, tracks.getOverride(name));
+		}
+		try (Stream<Path> stored = Files.list(BlobStore.BLOBS_DIR.toPath()))
+		{
+			assertEquals(0, stored.count());
+		}
+	}
+
+	@Test
+	public void pausedPresetOnlyFinishesWhatAlreadyStarted() throws Exception
+	{
+		// Paused while the first downloads are surely still going
+		api.holdDownloads();
+		Map<String, SearchResult> presetTracks = new LinkedHashMap<>();
+		for (int i = 0; i < 8; i++)
+		{
+			presetTracks.put("Track " + i, api.hit("video-" + i));
+		}
+		Tracks.Bulk bulk = tracks.bulkCreateOverride(new Preset("Paused", "", presetTracks));
+		int started = pipeline.config.downloadsPerHost();
+		api.awaitDownloads(started, TIMEOUT);
+		bulk.pause();
+		api.releaseDownloads();
+		for (int i = 0; i < started; i++)
+		{
+			pipeline.awaitCommitted("Track " + i, TIMEOUT);
+		}
+		// Goes ahead of the held ones, so once it's in the pool had its chance to (wrongly) start them
+		tracks.createOverride("Probe", api.hit("probe"));
+		pipeline.awaitCommitted("Probe", TIMEOUT);
+
+		assertEquals(started + 1, api.getDownloads().get());
+		for (int i = 0; i < presetTracks.size(); i++)
+		{
+			TrackOverride override = tracks.getOverride("Track " + i);
+			assertEquals(i < started, override != null);
+		}
+
+		bulk.resume();
+		pipeline.awaitChat(e -> e.startsWith("Finished downloading preset Paused"), TIMEOUT);
+		assertEquals(presetTracks.size() + 1, api.getDownloads().get());
+	}
+}
@@ -0,0 +1,60 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Time that only passes when told to (or when slept), and chance that always picks the longest backoff.
+ */
+class FakeClock implements ApiCircuitBreaker.Clock
+{
+	private long nanos;
+	private final List<Long> sleeps = new ArrayList<>();
+	private final List<String> randoms = new ArrayList<>();
+
+	@Override
+	public synchronized long nanoTime()
+	{
+		return nanos;
+	}
+
+	/**
+	 * Returns right away, as if {@code millis} passed
+	 */
+	@Override
+	public synchronized void sleep(long millis) throws InterruptedException
+	{
+		if (Thread.interrupted()) throw new InterruptedException();
+		sleeps.add(millis);
+		nanos += Duration.ofMillis(millis).toNanos();
+	}
+
+	@Override
+	public synchronized long random(long from, long to)
+	{
+		randoms.add(from + ".." + to);
+		return to;
+	}
+
+	synchronized void advance(Duration duration)
+	{
+		nanos += duration.toNanos();
+	}
+
+	/**
+	 * @return the millis slept so far, in order
+	 */
+	synchronized List<Long> sleeps()
+	{
+		return new ArrayList<>(sleeps);
+	}
+
+	/**
+	 * @return the ranges random numbers were asked in so far, in order
+	 */
+	synchronized List<String> randoms()
+	{
+		return new ArrayList<>(randoms);
+	}
+}
@@ -0,0 +1,521 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Writes small FLAC files for {@link FlacPcmStreamTest}, choosing per frame and subframe how it's coded. Follows the
+ * format spec on its own (e.g. the CRCs are computed bit by bit), so it doesn't share mistakes with {@link FlacPcmStream}.
+ */
+final class FlacFixture
+{
+	static final int LEFT_SIDE = 8;
+	static final int SIDE_RIGHT = 9;
+	static final int MID_SIDE = 10;
+
+	private final BitWriter out = new BitWriter();
+	private final int sampleRate;
+	private final int channels;
+	private final int bitsPerSample;
+
+	FlacFixture(int sampleRate, int channels, int bitsPerSample, int maxBlockSize)
+	{
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+		this.bitsPerSample = bitsPerSample;
+
+		out.write(0x664C6143, 32); // fLaC
+
+		out.write(0, 1); // Not the last metadata block
+		out.write(0, 7); // STREAMINFO
+		out.write(34, 24);
+		out.write(16, 16); // Min block size
+		out.write(maxBlockSize, 16);
+		out.write(0, 24); // Min frame size, unknown
+		out.write(0, 24); // Max frame size, unknown
+		out.write(sampleRate, 20);
+		out.write(channels - 1, 3);
+		out.write(bitsPerSample - 1, 5);
+		out.write(0, 36); // Total samples, unknown
+		out.write(0, 64); // MD5
+		out.write(0, 64);
+
+		// Something to skip
+		out.write(1, 1); // The last metadata block
+		out.write(1, 7); // PADDING
+		out.write(13, 24);
+		out.write(0, 13 * 8);
+	}
+
+	/**
+	 * @param samples per channel, as they're to be decoded (so before stereo decorrelation)
+	 */
+	static Frame frame(int[]... samples)
+	{
+		return new Frame(samples);
+	}
+
+	FlacFixture add(Frame frame)
+	{
+		int size = frame.samples[0].length;
+		int assignment = frame.assignment < 0 ? channels - 1 : frame.assignment;
+		int[][] coded = decorrelate(frame.samples, assignment);
+
+		int start = out.size();
+		out.write(0xFFF8, 16); // Sync code, fixed block size
+		int blockSizeCode = blockSizeCode(size);
+		out.write(blockSizeCode, 4);
+		out.write(frame.sampleRateCode, 4);
+		out.write(assignment, 4);
+		out.write(frame.sampleSizeFromStreamInfo ? 0 : sampleSizeCode(bitsPerSample), 3);
+		out.write(0, 1);
+		writeUtf8(frame.number);
+		if (blockSizeCode == 6) out.write(size - 1, 8);
+		else if (blockSizeCode == 7) out.write(size - 1, 16);
+		if (frame.sampleRateCode == 12) out.write(sampleRate / 1000, 8);
+		else if (frame.sampleRateCode == 13) out.write(sampleRate, 16);
+		else if (frame.sampleRateCode == 14) out.write(sampleRate / 10, 16);
+		int crc8 = crc8(out.toByteArray(), start);
+		out.write(frame.corruptCrc ? crc8 ^ 0x5A : crc8, 8);
+
+		for (int ch = 0; ch < channels; ch++)
+		{
+			boolean side = assignment == LEFT_SIDE && ch == 1
+					|| assignment == SIDE_RIGHT && ch == 0
+					|| assignment == MID_SIDE && ch == 1;
+			Subframe subframe = frame.subframes.length == 1 ? frame.subframes[0] : frame.subframes[ch];
+			writeSubframe(subframe, coded[ch], bitsPerSample + (side ? 1 : 0));
+		}
+		out.align();
+		out.write(crc16(out.toByteArray(), start), 16);
+		return this;
+	}
+
+	byte[] toByteArray()
+	{
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return {@code flac} behind an (empty) ID3v2 tag of {@code tagBytes}
+	 */
+	static byte[] withId3(byte[] flac, int tagBytes)
+	{
+		byte[] tagged = new byte[10 + tagBytes + flac.length];
+		tagged[0] = 'I';
+		tagged[1] = 'D';
+		tagged[2] = '3';
+		tagged[3] = 4;
+		for (int i = 0; i < 4; i++) tagged[6 + i] = (byte) (tagBytes >>> (21 - 7 * i) & 0x7F);
+		System.arraycopy(flac, 0, tagged, 10 + tagBytes, flac.length);
+		return tagged;
+	}
+
+	private static int[][] decorrelate(int[][] samples, int assignment)
+	{
+		if (assignment < LEFT_SIDE) return samples;
+
+		int[] left = samples[0];
+		int[] right = samples[1];
+		int[] first = new int[left.length];
+		int[] second = new int[left.length];
+		for (int i = 0; i < left.length; i++)
+		{
+			int side = left[i] - right[i];
+			switch (assignment)
+			{
+				case LEFT_SIDE:
+					first[i] = left[i];
+					second[i] = side;
+					break;
+				case SIDE_RIGHT:
+					first[i] = side;
+					second[i] = right[i];
+					break;
+				default:
+					first[i] = left[i] + right[i] >> 1;
+					second[i] = side;
+					break;
+			}
+		}
+		return new int[][]{first, second};
+	}
+
+	private void writeSubframe(Subframe subframe, int[] samples, int sampleSize)
+	{
+		int[] x = new int[samples.length];
+		for (int i = 0; i < x.length; i++)
+		{
+			x[i] = samples[i] >> subframe.wasted;
+			if (x[i] << subframe.wasted != samples[i]) throw new IllegalArgumentException("Can't waste " + subframe.wasted + " bits of " + samples[i]);
+		}
+		int bits = sampleSize - subframe.wasted;
+
+		out.write(0, 1);
+		out.write(subframe.typeCode(), 6);
+		if (subframe.wasted > 0)
+		{
+			out.write(1, 1);
+			out.write(1, subframe.wasted); // Unary coded wasted - 1
+		}
+		else
+		{
+			out.write(0, 1);
+		}
+
+		switch (subframe.type)
+		{
+			case CONSTANT:
+				for (int sample : x) if (sample != x[0]) throw new IllegalArgumentException("Not constant");
+				writeSigned(x[0], bits);
+				return;
+			case VERBATIM:
+				for (int sample : x) writeSigned(sample, bits);
+				return;
+		}
+
+		int order = subframe.order();
+		for (int i = 0; i < order; i++) writeSigned(x[i], bits);
+		if (subframe.type == Subframe.Type.LPC)
+		{
+			out.write(subframe.precision - 1, 4);
+			writeSigned(subframe.shift, 5);
+			for (int coef : subframe.coefs) writeSigned(coef, subframe.precision);
+		}
+
+		int[] residual = new int[x.length];
+		for (int i = order; i < x.length; i++) residual[i] = x[i] - subframe.predict(x, i);
+		writeResidual(subframe, residual, order);
+	}
+
+	private void writeResidual(Subframe subframe, int[] residual, int order)
+	{
+		int partitions = subframe.riceParams.length;
+		int partitionOrder = Integer.numberOfTrailingZeros(partitions);
+		boolean wideParams = false;
+		for (int param : subframe.riceParams) wideParams |= param >= 15;
+		int paramBits = wideParams ? 5 : 4;
+
+		out.write(wideParams ? 1 : 0, 2);
+		out.write(partitionOrder, 4);
+		int partitionSize = residual.length / partitions;
+		for (int partition = 0; partition < partitions; partition++)
+		{
+			int param = subframe.riceParams[partition];
+			int from = partition == 0 ? order : partition * partitionSize;
+			int to = (partition + 1) * partitionSize;
+			if (param == Subframe.ESCAPE)
+			{
+				out.write((1 << paramBits) - 1, paramBits);
+				out.write(subframe.escapeBits, 5);
+				for (int i = from; i < to; i++)
+				{
+					if (subframe.escapeBits == 0)
+					{
+						if (residual[i] != 0) throw new IllegalArgumentException("Residual " + residual[i] + " in 0 bits");
+					}
+					else
+					{
+						writeSigned(residual[i], subframe.escapeBits);
+					}
+				}
+			}
+			else
+			{
+				out.write(param, paramBits);
+				for (int i = from; i < to; i++)
+				{
+					int folded = residual[i] << 1 ^ residual[i] >> 31;
+					out.write(0, folded >>> param);
+					out.write(1, 1);
+					out.write(folded & (1 << param) - 1, param);
+				}
+			}
+		}
+	}
+
+	private void writeSigned(long value, int bits)
+	{
+		if (value < -(1L << bits - 1) || value >= 1L << bits - 1) throw new IllegalArgumentException(value + " doesn't fit " + bits + " bits");
+		out.write(value & (1L << bits) - 1, bits);
+	}
+
+	private void writeUtf8(long number)
+	{
+		if (number < 0x80)
+		{
+			out.write(number, 8);
+			return;
+		}
+
+		int extra = number < 0x800 ? 1 : number < 0x10000 ? 2 : number < 0x200000 ? 3 : number < 0x4000000 ? 4 : 5;
+		out.write(0xFF << 7 - extra & 0xFF | number >>> 6 * extra, 8);
+		for (int i = extra - 1; i >= 0; i--)
+		{
+			out.write(0x80 | number >>> 6 * i & 0x3F, 8);
+		}
+	}
+
+	private static int blockSizeCode(int size)
+	{
+		if (size == 192) return 1;
+		for (int code = 2; code <= 5; code++) if (size == 576 << code - 2) return code;
+		for (int code = 8; code <= 15; code++) if (size == 256 << code - 8) return code;
+		return size <= 256 ? 6 : 7;
+	}
+
+	private static int sampleSizeCode(int bitsPerSample)
+	{
+		switch (bitsPerSample)
+		{
+			case 8:
+				return 1;
+			case 12:
+				return 2;
+			case 16:
+				return 4;
+			case 20:
+				return 5;
+			case 24:
+				return 6;
+			default:
+				return 0;
+		}
+	}
+
+	private static int crc8(byte[] bytes, int from)
+	{
+		int crc = 0;
+		for (int i = from; i < bytes.length; i++)
+		{
+			crc ^= bytes[i] & 0xFF;
+			for (int bit = 0; bit < 8; bit++) crc = ((crc & 0x80) != 0 ? crc << 1 ^ 0x07 : crc << 1) & 0xFF;
+		}
+		return crc;
+	}
+
+	private static int crc16(byte[] bytes, int from)
+	{
+		int crc = 0;
+		for (int i = from; i < bytes.length; i++)
+		{
+			crc ^= (bytes[i] & 0xFF) << 8;
+			for (int bit = 0; bit < 8; bit++) crc = ((crc & 0x8000) != 0 ? crc << 1 ^ 0x8005 : crc << 1) & 0xFFFF;
+		}
+		return crc;
+	}
+
+	static final class Frame
+	{
+		private final int[][] samples;
+		private long number;
+		private int assignment = -1;
+		private Subframe[] subframes = {Subframe.verbatim()};
+		private int sampleRateCode;
+		private boolean sampleSizeFromStreamInfo;
+		private boolean corruptCrc;
+
+		private Frame(int[][] samples)
+		{
+			this.samples = samples;
+		}
+
+		Frame number(long number)
+		{
+			this.number = number;
+			return this;
+		}
+
+		Frame assignment(int assignment)
+		{
+			this.assignment = assignment;
+			return this;
+		}
+
+		/**
+		 * @param subframes per channel, or one for all of them
+		 */
+		Frame coded(Subframe... subframes)
+		{
+			this.subframes = subframes;
+			return this;
+		}
+
+		/**
+		 * @param code 12 to 14 to have the sample rate in the header, 0 to leave it to STREAMINFO
+		 */
+		Frame sampleRateCode(int code)
+		{
+			this.sampleRateCode = code;
+			return this;
+		}
+
+		Frame sampleSizeFromStreamInfo()
+		{
+			this.sampleSizeFromStreamInfo = true;
+			return this;
+		}
+
+		Frame corruptCrc()
+		{
+			this.corruptCrc = true;
+			return this;
+		}
+	}
+
+	static final class Subframe
+	{
+		/**
+		 * Instead of a Rice parameter, the partition's residuals are stored as is (in {@link #escapeBits})
+		 */
+		static final int ESCAPE = -1;
+
+		enum Type
+		{
+			CONSTANT, VERBATIM, FIXED, LPC
+		}
+
+		private final Type type;
+		private final int fixedOrder;
+		private final int precision;
+		private final int shift;
+		private final int[] coefs;
+		private int[] riceParams = {4};
+		private int escapeBits;
+		private int wasted;
+
+		private Subframe(Type type, int fixedOrder, int precision, int shift, int[] coefs)
+		{
+			this.type = type;
+			this.fixedOrder = fixedOrder;
+			this.precision = precision;
+			this.shift = shift;
+			this.coefs = coefs;
+		}
+
+		static Subframe constant()
+		{
+			return new Subframe(Type.CONSTANT, 0, 0, 0, null);
+		}
+
+		static Subframe verbatim()
+		{
+			return new Subframe(Type.VERBATIM, 0, 0, 0, null);
+		}
+
+		static Subframe fixed(int order)
+		{
+			return new Subframe(Type.FIXED, order, 0, 0, null);
+		}
+
+		static Subframe lpc(int precision, int shift, int... coefs)
+		{
+			return new Subframe(Type.LPC, 0, precision, shift, coefs);
+		}
+
+		/**
+		 * @param params per partition (so a power of 2 of them), {@link #ESCAPE} for an escaped partition
+		 */
+		Subframe rice(int... params)
+		{
+			this.riceParams = params;
+			return this;
+		}
+
+		Subframe escapeBits(int bits)
+		{
+			this.escapeBits = bits;
+			return this;
+		}
+
+		Subframe wasted(int bits)
+		{
+			this.wasted = bits;
+			return this;
+		}
+
+		private int order()
+		{
+			return type == Type.LPC ? coefs.length : fixedOrder;
+		}
+
+		private int typeCode()
+		{
+			switch (type)
+			{
+				case CONSTANT:
+					return 0;
+				case VERBATIM:
+					return 1;
+				case FIXED:
+					return 8 + fixedOrder;
+				default:
+					return 31 + coefs.length;
+			}
+		}
+
+		private int predict(int[] x, int i)
+		{
+			if (type == Type.LPC)
+			{
+				long sum = 0;
+				for (int j = 0; j < coefs.length; j++) sum += (long) coefs[j] * x[i - 1 - j];
+				return (int) (sum >> shift);
+			}
+			switch (fixedOrder)
+			{
+				case 0:
+					return 0;
+				case 1:
+					return x[i - 1];
+				case 2:
+					return 2 * x[i - 1] - x[i - 2];
+				case 3:
+					return 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+				default:
+					return 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+			}
+		}
+	}
+
+	private static final class BitWriter
+	{
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private int pending;
+		private int pendingBits;
+
+		/**
+		 * Writes the lowest {@code count} bits of {@code value}, most significant first.
+		 */
+		void write(long value, int count)
+		{
+			for (int i = count - 1; i >= 0; i--)
+			{
+				pending = pending << 1 | (int) (value >>> Math.min(i, 63) & (i > 63 ? 0 : 1));
+				if (++pendingBits == 8)
+				{
+					bytes.write(pending);
+					pending = 0;
+					pendingBits = 0;
+				}
+			}
+		}
+
+		void align()
+		{
+			while (pendingBits != 0) write(0, 1);
+		}
+
+		/**
+		 * @return the number of whole bytes written
+		 */
+		int size()
+		{
+			return bytes.size();
+		}
+
+		byte[] toByteArray()
+		{
+			return bytes.toByteArray();
+		}
+	}
+}
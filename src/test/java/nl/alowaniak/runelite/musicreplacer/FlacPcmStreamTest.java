@@ -0,0 +1,350 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import nl.alowaniak.runelite.musicreplacer.FlacFixture.Subframe;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static nl.alowaniak.runelite.musicreplacer.FlacFixture.LEFT_SIDE;
+import static nl.alowaniak.runelite.musicreplacer.FlacFixture.MID_SIDE;
+import static nl.alowaniak.runelite.musicreplacer.FlacFixture.SIDE_RIGHT;
+import static nl.alowaniak.runelite.musicreplacer.FlacFixture.frame;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class FlacPcmStreamTest
+{
+	private final List<Path> files = new ArrayList<>();
+
+	@After
+	public void after() throws IOException
+	{
+		for (Path file : files) Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void verbatimAndConstantSubframes() throws Exception
+	{
+		int[] ramp = ramp(64, -32768, 1023);
+		int[] constant = new int[32];
+		Arrays.fill(constant, -1234);
+		FlacFixture flac = new FlacFixture(44100, 1, 16, 64)
+				.add(frame(ramp).coded(Subframe.verbatim()))
+				.add(frame(constant).number(1).coded(Subframe.constant()));
+
+		assertArrayEquals(pcm(16, concat(ramp, constant)), decode(flac.toByteArray()));
+	}
+
+	@Test
+	public void fixedPredictionOfEveryOrder() throws Exception
+	{
+		FlacFixture flac = new FlacFixture(44100, 1, 16, 256);
+		List<int[]> expected = new ArrayList<>();
+		for (int order = 0; order <= 4; order++)
+		{
+			int[] samples = wave(256, order);
+			flac.add(frame(samples).number(order).coded(Subframe.fixed(order).rice(order + 2)));
+			expected.add(samples);
+		}
+
+		assertArrayEquals(pcm(16, concat(expected)), decode(flac.toByteArray()));
+	}
+
+	@Test
+	public void lpcPrediction() throws Exception
+	{
+		int[] smooth = wave(192, 1);
+		int[] noisy = wave(192, 7);
+		FlacFixture flac = new FlacFixture(44100, 1, 16, 192)
+				.add(frame(smooth).coded(Subframe.lpc(12, 10, 1946, -925).rice(3)))
+				// Precision and order at their maximum, coefficients that predict badly on purpose
+				.add(frame(noisy).number(1).coded(Subframe.lpc(15, 13,
+						16383, -16384, 9000, -7000, 5, 0, -1, 300, 12000, -12000, 77, -77, 1, 2, 3, -3,
+						100, -100, 2000, -2000, 16000, -16000, 10, 11, 12, 13, 14, 15, -15, -14, -13).rice(15)));
+
+		assertArrayEquals(pcm(16, concat(smooth, noisy)), decode(flac.toByteArray()));
+	}
+
+	@Test
+	public void riceAndEscapedPartitions() throws Exception
+	{
+		int[] samples = wave(256, 3);
+		// The first and third quarter are silent, which a 0 bit escape codes as all zeros
+		Arrays.fill(samples, 0, 64, 0);
+		Arrays.fill(samples, 128, 192, 0);
+		FlacFixture flac = new FlacFixture(44100, 1, 16, 256)
+				.add(frame(samples).coded(Subframe.fixed(0).rice(0, 9, 30, 14)))
+				.add(frame(samples).number(1).coded(Subframe.fixed(0).rice(Subframe.ESCAPE, 12, Subframe.ESCAPE, 11).escapeBits(0)))
+				.add(frame(samples).number(2).coded(Subframe.fixed(0).rice(Subframe.ESCAPE, Subframe.ESCAPE).escapeBits(16)))
+				// Many partitions with 5 bit parameters, the silent ones with the smallest
+				.add(frame(samples).number(3).coded(Subframe.fixed(2).rice(
+						16, 17, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13,
+						0, 1, 2, 3, 4, 5, 6, 7, 24, 25, 26, 27, 28, 29, 15, 16)));
+
+		assertArrayEquals(pcm(16, concat(samples, samples, samples, samples)), decode(flac.toByteArray()));
+	}
+
+	@Test
+	public void stereoDecorrelation() throws Exception
+	{
+		// Extremes so the side channel needs its extra bit, odd sums for mid-side's rounding
+		int[] left = {32767, -32768, 0, 1, -1, 12345, -3, 32767};
+		int[] right = {-32768, 32767, 1, 0, -2, -12346, 4, 32767};
+		FlacFixture flac = new FlacFixture(48000, 2, 16, 16);
+		int number = 0;
+		for (int assignment : new int[]{1, LEFT_SIDE, SIDE_RIGHT, MID_SIDE})
+		{
+			flac.add(frame(left, right).number(number++).assignment(assignment));
+			flac.add(frame(left, right).number(number++).assignment(assignment).coded(Subframe.fixed(1), Subframe.fixed(2)));
+		}
+
+		short[] pcm = decode(flac.toByteArray());
+		short[] frame = interleave(pcm(16, left), pcm(16, right));
+		short[] expected = new short[frame.length * 8];
+		for (int i = 0; i < 8; i++) System.arraycopy(frame, 0, expected, i * frame.length, frame.length);
+		assertArrayEquals(expected, pcm);
+	}
+
+	@Test
+	public void wastedBits() throws Exception
+	{
+		int[] left = wave(64, 2);
+		int[] right = wave(64, 5);
+		for (int i = 0; i < left.length; i++)
+		{
+			left[i] &= ~0x1F;
+			right[i] &= ~0x7;
+		}
+		FlacFixture flac = new FlacFixture(44100, 2, 16, 64)
+				.add(frame(left, right).coded(Subframe.verbatim().wasted(5), Subframe.fixed(2).wasted(3)))
+				// Of these the mid channel only has 2 wasted bits, the side channel 3
+				.add(frame(left, right).number(1).assignment(MID_SIDE).coded(Subframe.fixed(1).wasted(2), Subframe.lpc(8, 4, 20, -5).wasted(3)))
+				.add(frame(left, right).number(2).assignment(LEFT_SIDE).coded(Subframe.verbatim().wasted(1), Subframe.verbatim().wasted(3)));
+
+		short[] frame = interleave(pcm(16, left), pcm(16, right));
+		assertArrayEquals(concat(frame, frame, frame), decode(flac.toByteArray()));
+	}
+
+	@Test
+	public void utf8CodedFrameNumbersOfEveryLength() throws Exception
+	{
+		long[] numbers = {0, 0x7F, 0x80, 0x7FF, 0x800, 0xFFFF, 0x10000, 0x1FFFFF, 0x200000, 0x3FFFFFF, 0x4000000, 0x7FFFFFFFL};
+		FlacFixture flac = new FlacFixture(44100, 1, 16, 16);
+		List<int[]> expected = new ArrayList<>();
+		for (long number : numbers)
+		{
+			int[] samples = ramp(16, (int) (number % 30000), 3);
+			flac.add(frame(samples).number(number));
+			expected.add(samples);
+		}
+
+		assertArrayEquals(pcm(16, concat(expected)), decode(flac.toByteArray()));
+	}
+
+	@Test
+	public void frameWithBadCrcIsSkipped() throws Exception
+	{
+		int[] first = ramp(32, 0, 1);
+		int[] broken = ramp(32, 100, 1);
+		int[] last = ramp(32, 200, 1);
+		FlacFixture flac = new FlacFixture(44100, 1, 16, 32)
+				.add(frame(first))
+				.add(frame(broken).number(1).corruptCrc())
+				.add(frame(last).number(2));
+
+		assertArrayEquals(pcm(16, concat(first, last)), decode(flac.toByteArray()));
+	}
+
+	@Test
+	public void blockSizeAndSampleRateCodes() throws Exception
+	{
+		// 192, 576 and 256 have codes of their own, 100 is in an extra byte and 300 in two
+		int[] sizes = {192, 576, 256, 100, 300};
+		int[] rateCodes = {0, 12, 13, 14, 0};
+		FlacFixture flac = new FlacFixture(44000, 1, 16, 576);
+		List<int[]> expected = new ArrayList<>();
+		for (int i = 0; i < sizes.length; i++)
+		{
+			int[] samples = ramp(sizes[i], -1000 * i, 7);
+			FlacFixture.Frame frame = frame(samples).number(i).sampleRateCode(rateCodes[i]);
+			flac.add(i == 4 ? frame.sampleSizeFromStreamInfo() : frame);
+			expected.add(samples);
+		}
+
+		assertArrayEquals(pcm(16, concat(expected)), decode(flac.toByteArray()));
+	}
+
+	@Test
+	public void otherBitDepthsAreScaledTo16Bits() throws Exception
+	{
+		int[][] samplesPerDepth = {
+				{-128, 127, 0, 1, -1, 64, -64, 100},
+				{-2048, 2047, 0, 1, -1, 1000, -1000, 5},
+				{-524288, 524287, 0, 15, 16, -17, 300000, -300000},
+				{-8388608, 8388607, 0, 255, 256, -257, 5000000, -5000000},
+		};
+		int[] depths = {8, 12, 20, 24};
+		for (int i = 0; i < depths.length; i++)
+		{
+			int[] samples = samplesPerDepth[i];
+			FlacFixture flac = new FlacFixture(44100, 1, depths[i], 16)
+					.add(frame(samples).coded(Subframe.fixed(1).rice(Subframe.ESCAPE).escapeBits(depths[i] + 1)));
+			assertArrayEquals(depths[i] + " bit", pcm(depths[i], samples), decode(flac.toByteArray()));
+		}
+	}
+
+	@Test
+	public void moreThan24BitsIsRejected() throws Exception
+	{
+		byte[] flac = new FlacFixture(44100, 2, 32, 16)
+				.add(frame(new int[16], new int[16]))
+				.toByteArray();
+		try
+		{
+			decode(flac);
+			fail("32 bit samples can't be decoded into ints without overflowing the side channel");
+		}
+		catch (IOException e)
+		{
+			assertEquals("32 bit samples, at most 24 is supported", e.getMessage());
+		}
+	}
+
+	@Test
+	public void rewindStartsOverAtTheFirstFrame() throws Exception
+	{
+		int[] first = wave(64, 1);
+		int[] second = wave(64, 2);
+		byte[] flac = FlacFixture.withId3(new FlacFixture(44100, 1, 16, 64)
+				.add(frame(first))
+				.add(frame(second).number(1).coded(Subframe.fixed(2)))
+				.toByteArray(), 300);
+
+		try (FlacPcmStream stream = new FlacPcmStream(FileChannel.open(write(flac))))
+		{
+			assertEquals(44100, stream.getFormat().getSampleRate(), 0);
+			assertEquals(1, stream.getFormat().getChannels());
+			short[] expected = pcm(16, concat(first, second));
+			assertArrayEquals(expected, readAll(stream));
+			stream.rewind();
+			assertArrayEquals(expected, readAll(stream));
+		}
+	}
+
+	@Test
+	public void cutOffFramePlaysWhatCameBefore() throws Exception
+	{
+		int[] first = wave(64, 1);
+		byte[] flac = new FlacFixture(44100, 1, 16, 64)
+				.add(frame(first))
+				.add(frame(wave(64, 2)).number(1))
+				.toByteArray();
+
+		assertArrayEquals(pcm(16, first), decode(Arrays.copyOf(flac, flac.length - 50)));
+	}
+
+	private short[] decode(byte[] flac) throws IOException
+	{
+		try (FlacPcmStream stream = new FlacPcmStream(FileChannel.open(write(flac))))
+		{
+			return readAll(stream);
+		}
+	}
+
+	private Path write(byte[] flac) throws IOException
+	{
+		Path file = Files.createTempFile("music-replacer-test", ".flac");
+		files.add(file);
+		Files.write(file, flac);
+		return file;
+	}
+
+	private static short[] readAll(PcmStream stream) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// Odd sized, so reads also end in the middle of frames
+		byte[] buffer = new byte[1001];
+		int read;
+		while ((read = stream.read(buffer, 0, buffer.length)) != -1) out.write(buffer, 0, read);
+
+		byte[] bytes = out.toByteArray();
+		short[] pcm = new short[bytes.length / 2];
+		for (int i = 0; i < pcm.length; i++) pcm[i] = (short) (bytes[i * 2] & 0xFF | bytes[i * 2 + 1] << 8);
+		return pcm;
+	}
+
+	/**
+	 * @return what {@code samples} of {@code bits} should decode to
+	 */
+	private static short[] pcm(int bits, int... samples)
+	{
+		short[] pcm = new short[samples.length];
+		for (int i = 0; i < samples.length; i++) pcm[i] = (short) (bits >= 16 ? samples[i] >> bits - 16 : samples[i] << 16 - bits);
+		return pcm;
+	}
+
+	private static short[] interleave(short[] left, short[] right)
+	{
+		short[] pcm = new short[left.length * 2];
+		for (int i = 0; i < left.length; i++)
+		{
+			pcm[i * 2] = left[i];
+			pcm[i * 2 + 1] = right[i];
+		}
+		return pcm;
+	}
+
+	private static int[] ramp(int size, int from, int step)
+	{
+		int[] samples = new int[size];
+		for (int i = 0; i < size; i++) samples[i] = from + i * step;
+		return samples;
+	}
+
+	/**
+	 * @return a 16 bit wave, rougher for a higher {@code roughness}
+	 */
+	private static int[] wave(int size, int roughness)
+	{
+		int[] samples = new int[size];
+		for (int i = 0; i < size; i++)
+		{
+			double value = 12000 * Math.sin(i * .05) + 3000 * Math.sin(i * .31 * roughness) + (i * 7919 % 97 - 48) * roughness * 10;
+			samples[i] = (int) Math.max(-32768, Math.min(32767, value));
+		}
+		return samples;
+	}
+
+	private static int[] concat(int[]... arrays)
+	{
+		return concat(Arrays.asList(arrays));
+	}
+
+	private static int[] concat(List<int[]> arrays)
+	{
+		return arrays.stream().flatMapToInt(Arrays::stream).toArray();
+	}
+
+	private static short[] concat(short[]... arrays)
+	{
+		int length = 0;
+		for (short[] array : arrays) length += array.length;
+		short[] all = new short[length];
+		int offset = 0;
+		for (short[] array : arrays)
+		{
+			System.arraycopy(array, 0, all, offset, array.length);
+			offset += array.length;
+		}
+		return all;
+	}
+}
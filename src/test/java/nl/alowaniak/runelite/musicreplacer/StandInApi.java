@@ -0,0 +1,339 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.runelite.http.api.RuneLiteAPI.GSON;
+
+/**
+ * Stands in for {@link MusicReplacerPlugin#MUSIC_REPLACER_API} in process, serving synthetic search results and media.
+ * <p>
+ * {@code /search/<term>} gives {@link #SEARCH_RESULTS} hits with ids {@code <term>-<n>}.
+ * {@code /download/<id>?ext=.mp3} gives a CBR mp3 of {@link #setTrackSeconds track seconds} (silence, but valid
+ * frames), honouring {@code Range} requests. Latency, bandwidth and failures can be set to see how the pipeline copes.
+ * Downloads can be {@link #holdDownloads() held} halfway, so a test knows they're going without timing them.
+ */
+class StandInApi implements AutoCloseable
+{
+	static final int SEARCH_RESULTS = 5;
+
+	/**
+	 * MPEG-1 Layer III, 128 kbps, 44.1 kHz, no padding, stereo
+	 */
+	private static final int MP3_HEADER = 0xFFFB9000;
+	private static final int MP3_FRAME_BYTES = 144 * 128_000 / 44_100;
+	private static final int MP3_FRAME_SAMPLES = 1152;
+	private static final int WRITE_CHUNK = 8 * 1024;
+
+	private final HttpServer server;
+	private final ExecutorService handlers = Executors.newCachedThreadPool();
+	private final Map<Integer, byte[]> mediaPerSeconds = new ConcurrentHashMap<>();
+
+	/**
+	 * Before the response starts
+	 */
+	@Setter
+	private volatile long latencyMillis;
+	/**
+	 * Per response, 0 for unlimited
+	 */
+	@Setter
+	private volatile long bytesPerSecond;
+	/**
+	 * Chance a request gets a 500
+	 */
+	@Setter
+	private volatile double errorRate;
+	/**
+	 * Chance a download gets cut off halfway
+	 */
+	@Setter
+	private volatile double cutRate;
+	@Setter
+	private volatile boolean rangeSupported = true;
+	/**
+	 * Serve a 200 html page instead of media
+	 */
+	@Setter
+	private volatile boolean errorPage;
+	@Setter
+	private volatile int trackSeconds = 60;
+	/**
+	 * How many of the next requests get a 500 (regardless of {@link #errorRate})
+	 */
+	private final AtomicInteger failNext = new AtomicInteger();
+	/**
+	 * Downloads wait for it after their first chunk
+	 */
+	private volatile CountDownLatch gate = new CountDownLatch(0);
+
+	/**
+	 * Including the ones that failed
+	 */
+	@Getter
+	private final AtomicInteger requests = new AtomicInteger();
+	@Getter
+	private final AtomicInteger downloads = new AtomicInteger();
+	@Getter
+	private final AtomicInteger searches = new AtomicInteger();
+	@Getter
+	private final AtomicLong bytesServed = new AtomicLong();
+
+	StandInApi() throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/search/", e -> handle(e, this::search));
+		server.createContext("/download/", e -> handle(e, this::download));
+		server.setExecutor(handlers);
+		server.start();
+	}
+
+	/**
+	 * @return the base url, to bind as {@link MusicReplacerPlugin#MUSIC_REPLACER_API_URL}
+	 */
+	String url()
+	{
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+	}
+
+	/**
+	 * @return the duration of the media served, for {@link SearchResult#getDuration()}
+	 */
+	long trackDurationSeconds()
+	{
+		return media().length / MP3_FRAME_BYTES * MP3_FRAME_SAMPLES / 44_100;
+	}
+
+	long trackBytes()
+	{
+		return media().length;
+	}
+
+	SearchResult hit(String id)
+	{
+		SearchResult hit = new SearchResult();
+		hit.setId(id);
+		hit.setName("Stand-in " + id);
+		hit.setDuration(trackDurationSeconds());
+		hit.setUploader("StandInApi");
+		return hit;
+	}
+
+	void failNext(int requests)
+	{
+		failNext.set(requests);
+	}
+
+	/**
+	 * Makes the downloads from now on stop after their first chunk, until {@link #releaseDownloads()}
+	 */
+	void holdDownloads()
+	{
+		gate = new CountDownLatch(1);
+	}
+
+	void releaseDownloads()
+	{
+		gate.countDown();
+	}
+
+	/**
+	 * Waits until {@code count} downloads got here (in total)
+	 *
+	 * @throws AssertionError if they don't within {@code timeout}
+	 */
+	void awaitDownloads(int count, Duration timeout) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + timeout.toNanos();
+		synchronized (downloads)
+		{
+			while (downloads.get() < count)
+			{
+				long left = deadline - System.nanoTime();
+				if (left <= 0) throw new AssertionError("Only " + downloads.get() + " of " + count + " downloads within " + timeout);
+				TimeUnit.NANOSECONDS.timedWait(downloads, left);
+			}
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		server.stop(0);
+		handlers.shutdownNow();
+	}
+
+	private interface Handler
+	{
+		void handle(HttpExchange exchange) throws IOException;
+	}
+
+	private void handle(HttpExchange exchange, Handler handler) throws IOException
+	{
+		requests.incrementAndGet();
+		try
+		{
+			if (latencyMillis > 0) Thread.sleep(latencyMillis);
+			if (failNext.getAndUpdate(e -> Math.max(0, e - 1)) > 0 || ThreadLocalRandom.current().nextDouble() < errorRate)
+			{
+				exchange.sendResponseHeaders(500, -1);
+				return;
+			}
+			handler.handle(exchange);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException e)
+		{
+			// Client went away (or we cut it off), nothing to do about it
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	private void search(HttpExchange exchange) throws IOException
+	{
+		searches.incrementAndGet();
+		String term = URLDecoder.decode(exchange.getRequestURI().getRawPath().substring("/search/".length()), StandardCharsets.UTF_8);
+		List<SearchResult> hits = new ArrayList<>();
+		for (int i = 0; i < SEARCH_RESULTS; i++)
+		{
+			hits.add(hit(term + "-" + i));
+		}
+		byte[] body = GSON.toJson(hits).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		write(exchange.getResponseBody(), body, 0, body.length);
+	}
+
+	private void download(HttpExchange exchange) throws IOException
+	{
+		synchronized (downloads)
+		{
+			downloads.incrementAndGet();
+			downloads.notifyAll();
+		}
+		if (errorPage)
+		{
+			byte[] body = "<html>Video unavailable</html>".getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/html");
+			exchange.sendResponseHeaders(200, body.length);
+			write(exchange.getResponseBody(), body, 0, body.length);
+			return;
+		}
+
+		byte[] media = media();
+		int from = 0;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		exchange.getResponseHeaders().set("Content-Type", "audio/mpeg");
+		if (range != null && rangeSupported && range.startsWith("bytes="))
+		{
+			from = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+			if (from >= media.length)
+			{
+				exchange.getResponseHeaders().set("Content-Range", "bytes */" + media.length);
+				exchange.sendResponseHeaders(416, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + (media.length - 1) + "/" + media.length);
+			exchange.sendResponseHeaders(206, media.length - from);
+		}
+		else
+		{
+			exchange.sendResponseHeaders(200, media.length);
+		}
+
+		int to = ThreadLocalRandom.current().nextDouble() < cutRate ? from + (media.length - from) / 2 : media.length;
+		int firstChunk = Math.min(to, from + WRITE_CHUNK);
+		write(exchange.getResponseBody(), media, from, firstChunk);
+		try
+		{
+			gate.await();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted", e);
+		}
+		write(exchange.getResponseBody(), media, firstChunk, to);
+		if (to < media.length)
+		{
+			// Ending the exchange early makes the client see fewer bytes than the Content-Length
+			throw new IOException("Cut off");
+		}
+	}
+
+	private void write(OutputStream out, byte[] body, int from, int to) throws IOException
+	{
+		long start = System.nanoTime();
+		for (int position = from; position < to; )
+		{
+			int length = Math.min(WRITE_CHUNK, to - position);
+			out.write(body, position, length);
+			position += length;
+			bytesServed.addAndGet(length);
+
+			long rate = bytesPerSecond;
+			if (rate > 0)
+			{
+				long dueNanos = (position - from) * 1_000_000_000L / rate - (System.nanoTime() - start);
+				if (dueNanos > 0)
+				{
+					try
+					{
+						Thread.sleep(dueNanos / 1_000_000, (int) (dueNanos % 1_000_000));
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted", e);
+					}
+				}
+			}
+		}
+		out.flush();
+	}
+
+	private byte[] media()
+	{
+		return mediaPerSeconds.computeIfAbsent(trackSeconds, seconds ->
+		{
+			int frames = seconds * 44_100 / MP3_FRAME_SAMPLES;
+			byte[] media = new byte[frames * MP3_FRAME_BYTES];
+			for (int frame = 0; frame < frames; frame++)
+			{
+				int offset = frame * MP3_FRAME_BYTES;
+				media[offset] = (byte) (MP3_HEADER >>> 24);
+				media[offset + 1] = (byte) (MP3_HEADER >>> 16);
+				media[offset + 2] = (byte) (MP3_HEADER >>> 8);
+				media[offset + 3] = (byte) MP3_HEADER;
+			}
+			return media;
+		});
+	}
+}
@@ -0,0 +1,175 @@
+package nl.alowaniak.runelite.musicreplacer;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.name.Names;
+import net.runelite.client.config.ConfigManager;
+import okhttp3.OkHttpClient;
+import org.mockito.invocation.Invocation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * The download and search pipeline ({@link Tracks}, {@link YouTubeSearcher} and what they use) wired up by Guice
+ * against a {@link StandInApi}, with the client parts (config, chat) replaced by mocks. The {@link ApiCircuitBreaker}
+ * runs on a {@link FakeClock}, so its backoff doesn't take real time.
+ * <p>
+ * Runs in a temporary home directory, so it doesn't touch the overrides in the real {@code ~/.runelite}.
+ */
+class StandInPipeline implements AutoCloseable
+{
+	private static final Path HOME;
+	static
+	{
+		try
+		{
+			HOME = Files.createTempDirectory("music-replacer-test");
+		}
+		catch (IOException e)
+		{
+			throw new ExceptionInInitializerError(e);
+		}
+		// Before RuneLite is loaded, it decides its directory from this
+		System.setProperty("user.home", HOME.toString());
+	}
+
+	private static final Duration POLL = Duration.ofMillis(20);
+
+	final StandInApi api;
+	final MusicReplacerConfig config = mock(MusicReplacerConfig.class, withSettings().defaultAnswer(CALLS_REAL_METHODS));
+	final MusicReplacerPlugin plugin = mock(MusicReplacerPlugin.class);
+	final FakeClock clock = new FakeClock();
+	private final Map<String, String> stored = new ConcurrentHashMap<>();
+	private final ConfigManager configManager = mock(ConfigManager.class);
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final Injector injector;
+
+	StandInPipeline() throws IOException
+	{
+		Path overrides = Tracks.MUSIC_OVERRIDES_DIR.toPath();
+		if (!overrides.startsWith(HOME))
+		{
+			throw new IllegalStateException("RuneLite got loaded before the test home was set, refusing to use " + overrides);
+		}
+		// Start clean, the store and journal recreate their directories
+		if (Files.exists(overrides))
+		{
+			try (Stream<Path> walk = Files.walk(overrides))
+			{
+				for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) Files.delete(path);
+			}
+		}
+
+		when(configManager.getConfiguration(anyString(), anyString()))
+				.thenAnswer(i -> stored.get(i.getArgument(0) + "." + i.getArgument(1)));
+		doAnswer(i -> stored.put(i.getArgument(0) + "." + i.getArgument(1), i.getArgument(2)))
+				.when(configManager).setConfiguration(anyString(), anyString(), anyString());
+		doAnswer(i -> stored.remove(i.getArgument(0) + "." + i.getArgument(1)))
+				.when(configManager).unsetConfiguration(anyString(), anyString());
+		when(configManager.getConfigurationKeys(anyString())).thenAnswer(i -> stored.keySet().stream()
+				.filter(e -> e.startsWith(i.getArgument(0)))
+				.collect(Collectors.toList()));
+
+		// The stand-in only serves mp3
+		when(config.downloadFormat()).thenReturn(MusicReplacerConfig.DownloadFormat.MP3);
+		api = new StandInApi();
+		injector = Guice.createInjector(new AbstractModule()
+		{
+			@Override
+			protected void configure()
+			{
+				bind(MusicReplacerConfig.class).toInstance(config);
+				bind(MusicReplacerPlugin.class).toInstance(plugin);
+				bind(ConfigManager.class).toInstance(configManager);
+				bind(ApiCircuitBreaker.Clock.class).toInstance(clock);
+				bind(OkHttpClient.class).toInstance(new OkHttpClient());
+				bind(ExecutorService.class).annotatedWith(Names.named(MusicReplacerPlugin.MUSIC_REPLACER_EXECUTOR)).toInstance(executor);
+				bind(String.class).annotatedWith(Names.named(MusicReplacerPlugin.MUSIC_REPLACER_API_URL)).toInstance(api.url());
+			}
+		});
+	}
+
+	<T> T get(Class<T> type)
+	{
+		return injector.getInstance(type);
+	}
+
+	/**
+	 * @return the override of {@code name} once it's committed with its media
+	 * @throws AssertionError if that doesn't happen within {@code timeout}
+	 */
+	TrackOverride awaitCommitted(String name, Duration timeout) throws InterruptedException
+	{
+		Tracks tracks = get(Tracks.class);
+		long deadline = System.nanoTime() + timeout.toNanos();
+		while (System.nanoTime() < deadline)
+		{
+			TrackOverride override = tracks.getOverride(name);
+			if (override != null && override.getMedia() != null) return override;
+			Thread.sleep(POLL.toMillis());
+		}
+		throw new AssertionError(name + " didn't get overridden within " + timeout);
+	}
+
+	/**
+	 * @return the first chat message matching {@code message} once there is one
+	 * @throws AssertionError if there's none within {@code timeout}
+	 */
+	String awaitChat(Predicate<String> message, Duration timeout) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + timeout.toNanos();
+		while (System.nanoTime() < deadline)
+		{
+			for (String msg : chat())
+			{
+				if (message.test(msg)) return msg;
+			}
+			Thread.sleep(POLL.toMillis());
+		}
+		throw new AssertionError("No such chat message within " + timeout + ", got " + chat());
+	}
+
+	List<String> chat()
+	{
+		List<String> messages = new ArrayList<>();
+		for (Invocation invocation : mockingDetails(plugin).getInvocations())
+		{
+			if (!invocation.getMethod().getName().equals("chatMsg")) continue;
+			for (Object argument : invocation.getArguments())
+			{
+				if (argument instanceof String) messages.add((String) argument);
+				else if (argument instanceof String[]) messages.addAll(List.of((String[]) argument));
+			}
+		}
+		return messages;
+	}
+
+	@Override
+	public void close()
+	{
+		api.close();
+		executor.shutdownNow();
+	}
+}